@@ -1,6 +1,14 @@
 import java.io.*;
 import java.text.DecimalFormat;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
 
 public class AlgoUPER {
     /**
@@ -40,7 +48,7 @@ public class AlgoUPER {
      */
     private boolean tighterUpperBound;
 
-    private long CandidateNum=0;
+    private final LongAdder CandidateNum = new LongAdder();
 
     /**
      * Object to format double numbers in decimal format
@@ -55,7 +63,7 @@ public class AlgoUPER {
     /**
      * the UPOER count
      */
-    private long HUPOERCount = 0;
+    private final LongAdder HUPOERCount = new LongAdder();
 
     /**
      * Only for testing, if true, the matrixs will be outputed
@@ -103,10 +111,74 @@ public class AlgoUPER {
     private int maxSpan;
 
     /**
-     * Map: key: item value: another item that followed the first item + support
-     * (could be replaced with a triangular matrix...)
+     * The co-occurrence utility matrix: for an item and another item that
+     * followed the first item, the sum of the WEU of their occurrences
      */
-    private Map<Integer, Map<Integer, Integer>> cooMapAfter = null;
+    private CoocUtilityMatrix cooMatrix = null;
+
+    /**
+     * The maximum number of bytes of the co-occurrence sketch, 0 to use the
+     * exact co-occurrence matrix
+     */
+    private long coocSketchMemory = 0;
+
+    /**
+     * The number of rows of the co-occurrence sketch: the over-estimation bound
+     * holds with probability 1 - exp(-depth)
+     */
+    private int coocSketchDepth = 4;
+
+    /**
+     * Whether to also build the exact matrix when the sketch is used, to count
+     * the prunes lost by the sketch
+     */
+    private boolean coocSketchAudit = false;
+
+    /**
+     * The exact co-occurrence matrix, only built to audit the sketch
+     */
+    private CoocUtilityMatrix exactCooMatrix = null;
+
+    /**
+     * The number of rule expansions pruned by the exact matrix but not by the
+     * sketch (audit mode)
+     */
+    private final LongAdder sketchLostPruneCount = new LongAdder();
+
+    /**
+     * Whether the X episodes whose antecedent utility upper bound is below
+     * minUtility are pruned with their extensions
+     */
+    private boolean antecedentUtilityPruning = true;
+
+    /**
+     * The number of X episodes pruned by their antecedent utility upper bound
+     */
+    private final LongAdder antecedentUtilityPruneCount = new LongAdder();
+
+    /**
+     * The number of consequent windows kept by the cache of each thread, 0 to
+     * scan the window of each antecedent occurrence
+     */
+    private int consequentWindowCacheSize = 4096;
+
+    /**
+     * The capacity of the queue handing the X episodes to the rule mining
+     * threads in the pipelined mode, 0 to mine all the X episodes first
+     */
+    private int pipelineCapacity = 0;
+
+    /**
+     * The number of consecutive antecedents whose rules are mined together in
+     * parallel
+     */
+    private static final int RULE_MINING_WINDOW = 1024;
+
+    /**
+     * The consequent window caches of the threads of the last run, for their
+     * statistics
+     */
+    private final Queue<ConsequentWindowCache> windowCaches = new ConcurrentLinkedQueue<>();
 
     /**
      * Total utility in the database
@@ -126,6 +198,92 @@ public class AlgoUPER {
      */
     private Map<Integer, SingleMoListUtilityList> mapSingleXCandidatesWithMoListAndUtilityList;
 
+    /**
+     * The 1-candidates indexed by their dense code, once the events have been
+     * remapped after pruning
+     */
+    private SingleMoListUtilityList[] singleXCandidates;
+
+    /**
+     * The orders in which the events remaining after pruning can be coded. The
+     * episodes are grown by appending events of larger codes.
+     */
+    public enum EventOrder {
+        /**
+         * ascending event identifier
+         */
+        RAW,
+        /**
+         * ascending WEU, then ascending identifier
+         */
+        WEU,
+        /**
+         * ascending support, then ascending identifier
+         */
+        SUPPORT
+    }
+
+    /**
+     * The order of the event codes after pruning
+     */
+    private EventOrder eventOrder = EventOrder.RAW;
+
+    /**
+     * The ways to find the events that extend the occurrences of an episode or
+     * of a rule
+     */
+    public enum ExtensionMode {
+        /**
+         * scan all the events of the timepoints of the windows
+         */
+        SCAN,
+        /**
+         * walk the inverted index of each event that may extend the episode
+         */
+        INDEX,
+        /**
+         * choose for each episode the way that visits fewer events
+         */
+        ADAPTIVE
+    }
+
+    /**
+     * How the occurrences are extended
+     */
+    private ExtensionMode extensionMode = ExtensionMode.ADAPTIVE;
+
+    /**
+     * The orders in which the consequents of the rules of an antecedent are
+     * grown
+     */
+    public enum ConsequentGrowth {
+        /**
+         * extend all the rules of a consequent size before the larger ones
+         */
+        BREADTH_FIRST,
+        /**
+         * extend each rule as soon as it is found, keeping only the
+         * occurrences of the rules of the current path
+         */
+        DEPTH_FIRST
+    }
+
+    /**
+     * How the consequents are grown
+     */
+    private ConsequentGrowth consequentGrowth = ConsequentGrowth.BREADTH_FIRST;
+
+    /**
+     * The estimated cost of searching an event in the inverted index for one
+     * occurrence, in visited events (ADAPTIVE mode)
+     */
+    private long indexSearchCost;
+
+    /**
+     * The X episodes, each X candidate being a node of this prefix tree
+     */
+    private EpisodeTrie XEpisodes;
+
     /**
      * The candidates of X which are generated from the 1-candidates
      */
@@ -140,13 +298,22 @@ public class AlgoUPER {
      */
     private List<UPOER> HUPOERs = new ArrayList<>();
 
-    private Map<Integer, List<PositionsAndUtility>> mapFres = new HashMap<>();
-
     /**
      * The largest TID in the comoplex sequence
      */
     private int largestTID;
 
+    /**
+     * The number of threads used by the parallel parts of the algorithm (1 means
+     * that everything runs in the calling thread)
+     */
+    private int threadCount = 1;
+
+    /**
+     * The pool running the parallel tasks, null if threadCount is 1
+     */
+    private ForkJoinPool pool;
+
     /**
      * Constructor
      */
@@ -154,6 +321,136 @@ public class AlgoUPER {
         // empty
     }
 
+    /**
+     * Set the number of threads used by the parallel parts of the algorithm. The
+     * result does not depend on it.
+     *
+     * @param threadCount a number of threads, 1 by default
+     */
+    public void setThreadCount(int threadCount) {
+        this.threadCount = Math.max(1, threadCount);
+    }
+
+    /**
+     * Use a count-min sketch of bounded memory instead of the exact
+     * co-occurrence matrix for the WEUP strategy. The sketch only over-estimates
+     * the WEU, so it prunes less but finds the same rules. A larger memory
+     * lowers the over-estimation, a larger depth makes its bound more likely.
+     *
+     * @param maxMemory the maximum number of bytes of the sketch, 0 (the
+     *                  default) to use the exact matrix
+     * @param depth     the number of rows of the sketch, 4 by default
+     */
+    public void setCoocSketch(long maxMemory, int depth) {
+        this.coocSketchMemory = Math.max(0, maxMemory);
+        this.coocSketchDepth = Math.max(1, depth);
+    }
+
+    /**
+     * Also build the exact co-occurrence matrix when the sketch is used, and
+     * count the prunes that the sketch loses
+     *
+     * @param coocSketchAudit true to audit the sketch
+     */
+    public void setCoocSketchAudit(boolean coocSketchAudit) {
+        this.coocSketchAudit = coocSketchAudit;
+    }
+
+    /**
+     * Set the number of consequent windows cached by each thread. The window
+     * of an antecedent occurrence only depends on its end, so it is shared by
+     * all the antecedents ending at the same timepoint.
+     *
+     * @param consequentWindowCacheSize a number of windows, 4096 by default, 0
+     *                                  to disable the cache
+     */
+    public void setConsequentWindowCacheSize(int consequentWindowCacheSize) {
+        this.consequentWindowCacheSize = Math.max(0, consequentWindowCacheSize);
+    }
+
+    /**
+     * Get the number of consequent windows found in the caches
+     *
+     * @return a number of windows
+     */
+    public long getWindowCacheHitCount() {
+        long hitCount = 0;
+        for (ConsequentWindowCache cache : this.windowCaches) {
+            hitCount += cache.getHitCount();
+        }
+        return hitCount;
+    }
+
+    /**
+     * Get the number of consequent windows not found in the caches, and scanned
+     *
+     * @return a number of windows
+     */
+    public long getWindowCacheMissCount() {
+        long missCount = 0;
+        for (ConsequentWindowCache cache : this.windowCaches) {
+            missCount += cache.getMissCount();
+        }
+        return missCount;
+    }
+
+    /**
+     * Set the order of the event codes after pruning. The rules found do not
+     * depend on it, but the number of candidates does.
+     *
+     * @param eventOrder an order, RAW by default
+     */
+    public void setEventOrder(EventOrder eventOrder) {
+        this.eventOrder = eventOrder;
+    }
+
+    /**
+     * Set how the occurrences of the episodes and rules are extended. The rules
+     * found do not depend on it.
+     *
+     * @param extensionMode a mode, ADAPTIVE by default
+     */
+    public void setExtensionMode(ExtensionMode extensionMode) {
+        this.extensionMode = extensionMode;
+    }
+
+    /**
+     * Set the order in which the consequents are grown. The rules found do not
+     * depend on it, but their order in the output does, and the depth-first
+     * growth bounds the memory used by the occurrences of the rules of an
+     * antecedent.
+     *
+     * @param consequentGrowth an order, BREADTH_FIRST by default
+     */
+    public void setConsequentGrowth(ConsequentGrowth consequentGrowth) {
+        this.consequentGrowth = consequentGrowth;
+    }
+
+    /**
+     * Set whether the X episodes are pruned by their antecedent utility upper
+     * bound (see isPromisingAntecedent()). The rules found do not depend on it.
+     *
+     * @param antecedentUtilityPruning true (the default) to prune them
+     */
+    public void setAntecedentUtilityPruning(boolean antecedentUtilityPruning) {
+        this.antecedentUtilityPruning = antecedentUtilityPruning;
+    }
+
+    /**
+     * Set the pipelined mode: the X episodes are grown depth first, and each
+     * one is handed to the rule mining threads through a bounded queue as soon
+     * as it is found, instead of mining the rules once all the X episodes are
+     * found. Only the X episodes in flight are kept in memory. The rules found
+     * do not depend on it, but the rules of the antecedents are written in the
+     * order in which they are mined.
+     *
+     * @param pipelineCapacity the capacity of the queue, 0 (the default) to
+     *                         disable the pipelined mode
+     */
+    public void setPipelineCapacity(int pipelineCapacity) {
+        this.pipelineCapacity = pipelineCapacity;
+    }
+
     public void runAlgorithm(String inputFile, String outputFile, int minSupport, double minConfidence, double minUtilityRatio, int XSpan, int YSpan, int XYSpan, int maxLineNumber, boolean matrix, boolean tighterUpperBound) throws IOException {
 
         this.outputFile = outputFile;
@@ -174,6 +471,9 @@ public class AlgoUPER {
         MemoryLogger.getInstance().reset();
         this.startTimestamp = System.currentTimeMillis();
 
+        this.pool = this.threadCount > 1 ? new ForkJoinPool(this.threadCount) : null;
+        this.windowCaches.clear();
+
         this.complexSequence = new ComplexSequence();
 
         // init the singleCandidates and its minimal occurrences and total utilities
@@ -189,36 +489,65 @@ public class AlgoUPER {
         /**
          * WEUP strategy and RESP strategy
          */
-        this.complexSequence.pruneSingleEventsByUpperBound(this.maxSpan, this.minUtility, this.minSupport, this.minConfidence, this.mapSingleXCandidatesWithMoListAndUtilityList);
+        long[] eventWEUs = this.complexSequence.pruneSingleEventsByUpperBound(this.maxSpan, this.minUtility, this.minSupport, this.minConfidence, this.mapSingleXCandidatesWithMoListAndUtilityList, this.pool);
 
         System.out.println("Event number after WEU pruning: " + this.mapSingleXCandidatesWithMoListAndUtilityList.size());
 
-        System.out.println("the time piont of S_Y: " + this.complexSequence.mapYItemEET.size());
+        /**
+         * give dense codes to the remaining events
+         */
+        remapEvents(eventWEUs);
+
+        if (this.extensionMode != ExtensionMode.SCAN) {
+            this.complexSequence.buildEventIndex();
+            // a galloping search costs about the logarithm of the mean number of
+            // occurrences of an event
+            int alphabetSize = this.complexSequence.getAlphabetSize();
+            long meanOccurrences = alphabetSize == 0 ? 0 : this.complexSequence.getIndexEnd(alphabetSize - 1) / alphabetSize;
+            this.indexSearchCost = 2 + (64 - Long.numberOfLeadingZeros(meanOccurrences));
+        }
+
+        System.out.println("the time piont of S_Y: " + this.complexSequence.getYTimepointCount());
 
         /**
          * build the REUCS
          */
         buildCoocUtilityMatrix();
 
-        System.out.println("mining X begin");
+        if (this.pipelineCapacity > 0) {
+            System.out.println("mining X and rules begin");
 
-        /**
-         * mine all promising X event sets
-         */
-        miningXEventSet();
+            /**
+             * mine the rules of each promising X event set as soon as it is found
+             */
+            miningXEventSetAndHUPOERPipelined();
 
-        System.out.println("mining X complete");
+            System.out.println("mining X and rules complete");
+        } else {
+            System.out.println("mining X begin");
 
-        /**
-         * mine high-utility partially-ordered episode rules
-         */
-        miningHUPOER();
+            /**
+             * mine all promising X event sets
+             */
+            miningXEventSet();
+
+            System.out.println("mining X complete");
+
+            /**
+             * mine high-utility partially-ordered episode rules
+             */
+            miningHUPOER();
+        }
 
         this.endTimestamp = System.currentTimeMillis();
         this.deltaTimestamp = this.endTimestamp - this.startTimestamp;
 
         // close the file
         writer.close();
+        if (this.pool != null) {
+            this.pool.shutdown();
+            this.pool = null;
+        }
         MemoryLogger.getInstance().checkMemory();
         this.maxMemory = MemoryLogger.getInstance().getMaxMemory();
 
@@ -230,112 +559,330 @@ public class AlgoUPER {
      * and their minimal occurrences
      */
     private void scanDatabaseAndCalcSingleEpisodes(String inputFile) throws IOException {
-        // read file
-        @SuppressWarnings("resource")
-        BufferedReader reader = new BufferedReader(new FileReader(inputFile));
-        String line;
-
-        int lineNumber = 0;
-        while ((line = reader.readLine()) != null) {
-            if (lineNumber >= this.maxLineNumber) {
-                break;
+        // read file, the line number of each line is its TID
+        List<SequenceFileParser.ParsedLines> chunks;
+        if (this.pool == null) {
+            chunks = Collections.singletonList(SequenceFileParser.parse(inputFile, this.maxLineNumber));
+        } else {
+            chunks = SequenceFileParser.parseInChunks(inputFile, this.pool, this.maxLineNumber);
+        }
+
+        // the number of lines before each chunk
+        int[] lineOffsets = new int[chunks.size() + 1];
+        for (int i = 0; i < chunks.size(); i++) {
+            lineOffsets[i + 1] = (int) Math.min(this.maxLineNumber, (long) lineOffsets[i] + chunks.get(i).getLineCount());
+        }
+
+        // the minimal occurrences and utilities of each event in each chunk
+        List<Map<Integer, SingleMoListUtilityList>> chunkSingleEpisodes = new ArrayList<>();
+        if (this.pool == null) {
+            chunkSingleEpisodes.add(collectSingleEpisodes(chunks.get(0), 0));
+        } else {
+            List<ForkJoinTask<Map<Integer, SingleMoListUtilityList>>> tasks = new ArrayList<>();
+            for (int i = 0; i < chunks.size(); i++) {
+                SequenceFileParser.ParsedLines chunk = chunks.get(i);
+                int lineOffset = lineOffsets[i];
+                tasks.add(this.pool.submit(() -> collectSingleEpisodes(chunk, lineOffset)));
+            }
+            for (ForkJoinTask<Map<Integer, SingleMoListUtilityList>> task : tasks) {
+                chunkSingleEpisodes.add(task.join());
             }
+        }
 
-            lineNumber++;
+        // merge the chunks in TID order
+        for (int i = 0; i < chunks.size(); i++) {
+            SequenceFileParser.ParsedLines lines = chunks.get(i);
+            for (int row = 0; row < lines.getRowCount(); row++) {
+                int lineNumber = lineOffsets[i] + lines.getLineNumber(row);
+                if (lineNumber > this.maxLineNumber) {
+                    break;
+                }
+                int totalUtility = lines.getTotalUtility(row);
 
-            // if the line is a comment, is empty or is a
-            // kind of metadata
-            if (line.isEmpty() || line.charAt(0) == '#' || line.charAt(0) == '%' || line.charAt(0) == '@') {
-                continue;
+                for (int pos = lines.getRowStart(row); pos < lines.getRowEnd(row); pos++) {
+                    // add to the complexSequence
+                    this.complexSequence.add(lineNumber, lines.getEvent(pos), lines.getUtility(pos));
+                }
+                this.sequenceUtility += totalUtility;
+                this.complexSequence.setTotalUtility(lineNumber, totalUtility);
             }
 
-            // line form: events:totalUtility:eventsUtility
-            String[] lineSplited = line.split(":");
-            String[] events = lineSplited[0].split(" ");
-            int totalUtility = Integer.parseInt(lineSplited[1]);
-            String[] eventsUtility = lineSplited[2].split(" ");
+            for (Map.Entry<Integer, SingleMoListUtilityList> entry : chunkSingleEpisodes.get(i).entrySet()) {
+                SingleMoListUtilityList moListUtilityList = this.mapSingleXCandidatesWithMoListAndUtilityList.get(entry.getKey());
+                if (moListUtilityList == null) {
+                    this.mapSingleXCandidatesWithMoListAndUtilityList.put(entry.getKey(), entry.getValue());
+                } else {
+                    moListUtilityList.moList.addAll(entry.getValue().moList);
+                    moListUtilityList.utilityList.addAll(entry.getValue().utilityList);
+                }
+            }
+        }
+        // set the largest TID to sequence
+        this.largestTID = lineOffsets[chunks.size()];
+        this.complexSequence.setLargestTID(this.largestTID);
 
-            for (int i = 0; i < events.length; i++) {
-                // convert the event to Integer
-                Integer event = Integer.parseInt(events[i]);
+        // from now on, the events are represented by their codes in the sequence
+        this.complexSequence.encodeEvents();
+        Map<Integer, SingleMoListUtilityList> mapSingleEpisodes = new HashMap<>();
+        for (Map.Entry<Integer, SingleMoListUtilityList> entry : this.mapSingleXCandidatesWithMoListAndUtilityList.entrySet()) {
+            mapSingleEpisodes.put(this.complexSequence.getEventCode(entry.getKey()), entry.getValue());
+        }
+        this.mapSingleXCandidatesWithMoListAndUtilityList = mapSingleEpisodes;
 
-                // convert the utility of event to Integer
-                Integer eventUtility = Integer.parseInt(eventsUtility[i]);
+        /* get the absolute minimal utility */
+        this.minUtility = this.sequenceUtility * this.minUtilityRatio;
 
-                // add to the complexSequence
-                this.complexSequence.add(lineNumber, event, eventUtility);
+    }
+
+    /**
+     * Collect the minimal occurrences and utilities of each event of a chunk of
+     * the file, up to the line maxLineNumber
+     *
+     * @param lines      the parsed lines of the chunk
+     * @param lineOffset the number of lines before the chunk
+     * @return a map with key: event, value: its minimal occurrences and
+     * utilities, the events being in order of first appearance
+     */
+    private Map<Integer, SingleMoListUtilityList> collectSingleEpisodes(SequenceFileParser.ParsedLines lines, int lineOffset) {
+        Map<Integer, SingleMoListUtilityList> mapSingleEpisodes = new LinkedHashMap<>();
+        for (int row = 0; row < lines.getRowCount(); row++) {
+            int lineNumber = lineOffset + lines.getLineNumber(row);
+            if (lineNumber > this.maxLineNumber) {
+                break;
+            }
+            for (int pos = lines.getRowStart(row); pos < lines.getRowEnd(row); pos++) {
+                // convert the event to Integer
+                Integer event = lines.getEvent(pos);
 
                 // if map does not contains this event, create the key of the map
-                if (!this.mapSingleXCandidatesWithMoListAndUtilityList.containsKey(event)) {
-                    this.mapSingleXCandidatesWithMoListAndUtilityList.put(event, new SingleMoListUtilityList());
+                SingleMoListUtilityList moListUtilityList = mapSingleEpisodes.get(event);
+                if (moListUtilityList == null) {
+                    moListUtilityList = new SingleMoListUtilityList();
+                    mapSingleEpisodes.put(event, moListUtilityList);
                 }
 
                 // save current timepoint and utility of the event to the map
-                this.mapSingleXCandidatesWithMoListAndUtilityList.get(event).add(lineNumber, eventUtility);
-
+                moListUtilityList.add(lineNumber, lines.getUtility(pos));
             }
-            this.sequenceUtility += totalUtility;
-            this.complexSequence.setTotalUtility(lineNumber, totalUtility);
         }
-        // set the largest TID to sequence
-        this.largestTID = lineNumber;
-        this.complexSequence.setLargestTID(this.largestTID);
-
-        /* get the absolute minimal utility */
-        this.minUtility = this.sequenceUtility * this.minUtilityRatio;
+        return mapSingleEpisodes;
+    }
 
+    /**
+     * Give the dense codes 0..n-1 to the n events remaining after pruning, in
+     * the chosen event order, and index the 1-candidates by them
+     *
+     * @param eventWEUs the WEU of each event code before remapping
+     */
+    private void remapEvents(long[] eventWEUs) {
+        Integer[] remaining = this.mapSingleXCandidatesWithMoListAndUtilityList.keySet().toArray(new Integer[0]);
+        Comparator<Integer> order;
+        switch (this.eventOrder) {
+            case WEU:
+                order = Comparator.comparingLong(code -> eventWEUs[code]);
+                break;
+            case SUPPORT:
+                order = Comparator.comparingInt(code -> this.mapSingleXCandidatesWithMoListAndUtilityList.get(code).moList.size());
+                break;
+            default:
+                order = (a, b) -> 0;
+                break;
+        }
+        // codes are in event order, so they break the ties by identifier
+        Arrays.sort(remaining, order.thenComparingInt(code -> code));
+
+        int[] newCodes = new int[this.complexSequence.getAlphabetSize()];
+        Arrays.fill(newCodes, -1);
+        this.singleXCandidates = new SingleMoListUtilityList[remaining.length];
+        for (int newCode = 0; newCode < remaining.length; newCode++) {
+            newCodes[remaining[newCode]] = newCode;
+            this.singleXCandidates[newCode] = this.mapSingleXCandidatesWithMoListAndUtilityList.get(remaining[newCode]);
+        }
+        this.complexSequence.remapEvents(newCodes, remaining.length);
+        this.mapSingleXCandidatesWithMoListAndUtilityList.clear();
     }
 
     /**
-     * Build the coocurrence utility matrix
+     * Build the coocurrence utility matrix, or its sketch
      *
      * @throws IOException if error reading/writing to a file
      */
     private void buildCoocUtilityMatrix() throws IOException {
 
-        this.cooMapAfter = new HashMap<>();
+        this.exactCooMatrix = null;
+        this.sketchLostPruneCount.reset();
+        if (this.coocSketchMemory == 0) {
+            this.cooMatrix = buildExactCoocUtilityMatrix();
+            return;
+        }
 
-        for (int TID = 1; TID <= this.largestTID; TID++) {
+        CoocUtilityMatrix.Sketch sketch = new CoocUtilityMatrix.Sketch(this.complexSequence.getAlphabetSize(),
+                this.coocSketchMemory, this.coocSketchDepth);
+        if (this.pool == null) {
+            addCoocUtilities(sketch, 1, this.largestTID + 1);
+        } else {
+            // the counters of the sketch are atomic, so the tasks fill it together
+            int rangeCount = this.pool.getParallelism();
+            int rangeSize = Math.max(ComplexSequence.MIN_TID_RANGE, this.largestTID / rangeCount + 1);
+            List<ForkJoinTask<?>> tasks = new ArrayList<>();
+            for (int from = 1; from <= this.largestTID; from += rangeSize) {
+                int rangeStart = from;
+                int rangeEnd = Math.min(this.largestTID + 1, from + rangeSize);
+                tasks.add(this.pool.submit(() -> addCoocUtilities(sketch, rangeStart, rangeEnd)));
+            }
+            for (ForkJoinTask<?> task : tasks) {
+                task.join();
+            }
+        }
+        this.cooMatrix = sketch;
+        if (this.coocSketchAudit) {
+            this.exactCooMatrix = buildExactCoocUtilityMatrix();
+        }
+    }
 
-            List<ComplexSequence.EventUtility> pairs = this.complexSequence.getEventSetAndItsUtilityByTID(TID);
+    /**
+     * Build the exact coocurrence utility matrix
+     *
+     * @return the matrix
+     */
+    private CoocUtilityMatrix buildExactCoocUtilityMatrix() {
 
-            for (ComplexSequence.EventUtility pair : pairs) {
-                int itemI = pair.event;
+        int alphabetSize = this.complexSequence.getAlphabetSize();
+        if (this.pool == null) {
+            CoocUtilityMatrix.Builder builder = new CoocUtilityMatrix.Builder(alphabetSize);
+            addCoocUtilities(builder, 1, this.largestTID + 1);
+            return builder.build();
+        }
 
-                Set<Integer> alreadyProcessedAfter = new HashSet<>();
-                for (int TIDAfter = TID + 1; TIDAfter <= TID + maxSpan; TIDAfter++) {
-                    List<ComplexSequence.EventUtility> pairsAfter = this.complexSequence.getEventSetAndItsUtilityByTID(TIDAfter);
-                    for (ComplexSequence.EventUtility pairAfter : pairsAfter) {
-                        int itemJ = pairAfter.event;
+        // each task fills a partial matrix with the co-occurrences of a range of
+        // TIDs. The window of a TID may cross the end of its range, since the
+        // sequence is only read, so each occurrence is counted by exactly one task
+        int rangeCount = this.pool.getParallelism();
+        int rangeSize = Math.max(ComplexSequence.MIN_TID_RANGE, this.largestTID / rangeCount + 1);
+        List<ForkJoinTask<CoocUtilityMatrix.Builder>> tasks = new ArrayList<>();
+        for (int from = 1; from <= this.largestTID; from += rangeSize) {
+            int rangeStart = from;
+            int rangeEnd = Math.min(this.largestTID + 1, from + rangeSize);
+            tasks.add(this.pool.submit(() -> {
+                CoocUtilityMatrix.Builder builder = new CoocUtilityMatrix.Builder(alphabetSize);
+                addCoocUtilities(builder, rangeStart, rangeEnd);
+                return builder;
+            }));
+        }
+        List<CoocUtilityMatrix.Builder> partials = new ArrayList<>();
+        for (ForkJoinTask<CoocUtilityMatrix.Builder> task : tasks) {
+            partials.add(task.join());
+        }
 
-                        if (alreadyProcessedAfter.contains(itemJ)) {
-                            // if itemJ has been processed, pass it
-                            continue;
-                        }
+        // merge the partial matrices two by two until one remains; the sums are
+        // exact, so the matrix equals the one built sequentially
+        while (partials.size() > 1) {
+            List<ForkJoinTask<CoocUtilityMatrix.Builder>> merges = new ArrayList<>();
+            for (int i = 0; i + 1 < partials.size(); i += 2) {
+                CoocUtilityMatrix.Builder left = partials.get(i);
+                CoocUtilityMatrix.Builder right = partials.get(i + 1);
+                merges.add(this.pool.submit(() -> left.addAll(right)));
+            }
+            List<CoocUtilityMatrix.Builder> merged = new ArrayList<>();
+            for (ForkJoinTask<CoocUtilityMatrix.Builder> merge : merges) {
+                merged.add(merge.join());
+            }
+            if (partials.size() % 2 == 1) {
+                merged.add(partials.get(partials.size() - 1));
+            }
+            partials = merged;
+        }
+        return partials.isEmpty() ? new CoocUtilityMatrix.Builder(alphabetSize).build() : partials.get(0).build();
 
-                        // calculate the WEU of the occurrence
-                        int utilityAfter = this.complexSequence.getTotalUtilityOfDuration(TIDAfter - maxSpan,
-                                TID + maxSpan);
+    }
 
-                        Map<Integer, Integer> map = cooMapAfter.get(itemI);
-                        if (map == null) {
-                            map = new HashMap<>();
-                            cooMapAfter.put(itemI, map);
-                        }
+    /**
+     * Add to a matrix builder or sketch the co-occurrences of the events of the
+     * timepoints in [fromTID, toTID) with the events that follow them within
+     * maxSpan. For a timepoint TID, each event j of the window (TID, TID +
+     * maxSpan] is counted once, at its first position TIDAfter in the window,
+     * with the WEU of [TIDAfter - maxSpan, TID + maxSpan].
+     * <p>
+     * The window slides backward from toTID - 1: the timepoint entering it is
+     * TID + 1 and the one leaving it is TID + maxSpan + 1, so the first position
+     * of each event of the window is the last position where it entered, and
+     * the events of a timepoint are added or removed once instead of once per
+     * window containing them. The followers of TID and their WEU are then
+     * added to each event of TID.
+     *
+     * @param builder the matrix builder or sketch
+     * @param fromTID the first TID
+     * @param toTID   the TID after the last TID
+     */
+    private void addCoocUtilities(CoocUtilityMatrix.Accumulator builder, int fromTID, int toTID) {
+        int alphabetSize = this.complexSequence.getAlphabetSize();
+        // the number of positions of each event in the window
+        int[] windowCount = new int[alphabetSize];
+        // the first TID of each event of the window
+        int[] firstTID = new int[alphabetSize];
+        // the distinct events of the window, followers[0 .. followerCount), and
+        // the position of each one in followers
+        int[] followers = new int[alphabetSize];
+        int[] followerIndex = new int[alphabetSize];
+        int followerCount = 0;
+        int[] followerUtilities = new int[alphabetSize];
+
+        // the window of toTID - 1
+        for (int TIDAfter = toTID - 1 + maxSpan; TIDAfter >= toTID; TIDAfter--) {
+            followerCount = enterCoocWindow(TIDAfter, windowCount, firstTID, followers, followerIndex, followerCount);
+        }
+        for (int TID = toTID - 1; TID >= fromTID; TID--) {
+            int first = this.complexSequence.getStart(TID);
+            int last = this.complexSequence.getEnd(TID);
+            if (first < last) {
+                // calculate the WEU of the first occurrence of each follower
+                for (int k = 0; k < followerCount; k++) {
+                    followerUtilities[k] = this.complexSequence.getTotalUtilityOfDuration(firstTID[followers[k]] - maxSpan,
+                            TID + maxSpan);
+                }
 
-                        // the WEU of the event is the sum of its occurrences' WEU
-                        Integer utility = map.get(itemJ);
-                        if (utility == null) {
-                            map.put(itemJ, utilityAfter);
-                        } else {
-                            map.put(itemJ, utility + utilityAfter);
-                        }
-                        alreadyProcessedAfter.add(itemJ);
+                // the WEU of the event is the sum of its occurrences' WEU
+                for (int pos = first; pos < last; pos++) {
+                    int itemI = this.complexSequence.getEvent(pos);
+                    for (int k = 0; k < followerCount; k++) {
+                        builder.add(itemI, followers[k], followerUtilities[k]);
                     }
                 }
             }
+
+            // slide the window to (TID - 1, TID - 1 + maxSpan]
+            int leaving = TID + maxSpan;
+            int lastLeaving = this.complexSequence.getEnd(leaving);
+            for (int pos = this.complexSequence.getStart(leaving); pos < lastLeaving; pos++) {
+                int itemJ = this.complexSequence.getEvent(pos);
+                if (--windowCount[itemJ] == 0) {
+                    // move the last follower to the place of itemJ
+                    int moved = followers[--followerCount];
+                    followers[followerIndex[itemJ]] = moved;
+                    followerIndex[moved] = followerIndex[itemJ];
+                }
+            }
+            followerCount = enterCoocWindow(TID, windowCount, firstTID, followers, followerIndex, followerCount);
         }
+    }
 
+    /**
+     * Add the events of a timepoint to the window of addCoocUtilities(), the
+     * timepoint being before the other timepoints of the window
+     *
+     * @return the new number of followers
+     */
+    private int enterCoocWindow(int TID, int[] windowCount, int[] firstTID, int[] followers, int[] followerIndex, int followerCount) {
+        int last = this.complexSequence.getEnd(TID);
+        for (int pos = this.complexSequence.getStart(TID); pos < last; pos++) {
+            int itemJ = this.complexSequence.getEvent(pos);
+            if (windowCount[itemJ]++ == 0) {
+                followerIndex[itemJ] = followerCount;
+                followers[followerCount++] = itemJ;
+            }
+            firstTID[itemJ] = TID;
+        }
+        return followerCount;
     }
 
     /**
@@ -343,684 +890,1269 @@ public class AlgoUPER {
      * Rule
      */
     private void miningXEventSet() {
-        this.XCandidatesWithMoListAndUtilityList = new ArrayList<>();
-        for (Map.Entry<Integer, SingleMoListUtilityList> entry : this.mapSingleXCandidatesWithMoListAndUtilityList.entrySet()) {
-            Integer SingleXEvent = entry.getKey();
-            List<Integer> XEventList = new ArrayList<>();
-            XEventList.add(SingleXEvent);
-            List<PositionsAndUtility> SingleXPositionUtilityList = new ArrayList<>();
+        this.XCandidatesWithMoListAndUtilityList = createSingleXEpisodes();
 
-            List<Integer> SingleXEventPositionList = entry.getValue().getMoList();
-            List<Integer> SingleXEventUtilityList = entry.getValue().getUtilityList();
-            for (int i = 0; i < SingleXEventPositionList.size(); i++) {
-                PositionsAndUtility SingleXPositionUtility = new PositionsAndUtility(SingleXEventPositionList.get(i), SingleXEventPositionList.get(i), SingleXEventUtilityList.get(i));
-                SingleXPositionUtilityList.add(SingleXPositionUtility);
-            }
-            this.XCandidatesWithMoListAndUtilityList.add(new EpisodeMoListUtilityList(XEventList, SingleXPositionUtilityList));
+        if (this.pool != null) {
+            miningXEventSetInParallel();
+            return;
         }
-        this.mapSingleXCandidatesWithMoListAndUtilityList.clear();
 
+        XExtensionScratch scratch = new XExtensionScratch();
         try {
             int index = 0;
             int maxIndex = XCandidatesWithMoListAndUtilityList.size();
 
             while (index < maxIndex) {
-                this.mapFres.clear();
                 EpisodeMoListUtilityList EpisodeMo = XCandidatesWithMoListAndUtilityList.get(index);
                 index++;
+                extendXEpisode(EpisodeMo, scratch, this.XCandidatesWithMoListAndUtilityList);
+                maxIndex = this.XCandidatesWithMoListAndUtilityList.size();
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
 
-                List<Integer> episode = EpisodeMo.getEpisodeList();
-                Integer compareKey = episode.get(episode.size() - 1);
+        }
+    }
 
-                List<PositionsAndUtility> moPositionAndUtilityList = EpisodeMo.getPositionAndUtilityList();
-                PositionsAndUtility positionsAndUtility;
+    /**
+     * Create the X episodes with one event from the 1-candidates, by ascending
+     * code
+     *
+     * @return the episodes
+     */
+    private List<EpisodeMoListUtilityList> createSingleXEpisodes() {
+        this.XEpisodes = new EpisodeTrie();
+        this.antecedentUtilityPruneCount.reset();
+        List<EpisodeMoListUtilityList> singleEpisodes = new ArrayList<>();
+        for (int SingleXEvent = 0; SingleXEvent < this.singleXCandidates.length; SingleXEvent++) {
+            List<Integer> SingleXEventPositionList = this.singleXCandidates[SingleXEvent].getMoList();
+            List<Integer> SingleXEventUtilityList = this.singleXCandidates[SingleXEvent].getUtilityList();
+            OccurrenceList SingleXPositionUtilityList = new OccurrenceList(SingleXEventPositionList.size());
+            for (int i = 0; i < SingleXEventPositionList.size(); i++) {
+                SingleXPositionUtilityList.add(SingleXEventPositionList.get(i), SingleXEventPositionList.get(i), SingleXEventUtilityList.get(i));
+            }
+            if (!isPromisingAntecedent(SingleXPositionUtilityList)) {
+                continue;
+            }
+            int XEpisode = this.XEpisodes.add(EpisodeTrie.ROOT, SingleXEvent);
+            singleEpisodes.add(new EpisodeMoListUtilityList(XEpisode, SingleXPositionUtilityList));
+        }
+        this.singleXCandidates = null;
+        return singleEpisodes;
+    }
 
-                for (int i = 0; i < moPositionAndUtilityList.size(); i++) {
-                    int start = moPositionAndUtilityList.get(i).start;
-                    int end = moPositionAndUtilityList.get(i).end;
-                    int moUtility = moPositionAndUtilityList.get(i).utility;
-                    // Search the time intervals [interval.end - XSpan + 1, interval.start)
-                    for (int j = end - this.XSpan + 1; j < start; j++) {
-                        if (this.complexSequence.getEventSetAndItsUtilityByTID(j).isEmpty()) {
-                            continue;
-                        }
-                        List<ComplexSequence.EventUtility> pairs = this.complexSequence.getEventSetAndItsUtilityByTID(j);
-                        for (int k = 0; k < pairs.size(); k++) {
-                            int event = pairs.get(k).event;
-                            int utility = pairs.get(k).utility;
-                            if (event > compareKey) {
-                                if (this.mapFres.containsKey(event)) {
-                                    positionsAndUtility = new PositionsAndUtility(j, end, moUtility + utility);
-                                    this.mapFres.get(event).add(positionsAndUtility);
-                                } else {
-                                    List<PositionsAndUtility> positionsAndUtilityList = new ArrayList<>();
-                                    positionsAndUtility = new PositionsAndUtility(j, end, moUtility + utility);
-                                    positionsAndUtilityList.add(positionsAndUtility);
-                                    this.mapFres.put(event, positionsAndUtilityList);
-                                }
-                            }
-                        }
+    /**
+     * Grow the X episodes in parallel: the subtree of each 1-episode is mined by
+     * a fork-join task, which forks a task for each child episode, so that
+     * large subtrees are shared by work stealing. The episodes are then sorted
+     * by size, then by events, which is the order of the sequential mining.
+     */
+    private void miningXEventSetInParallel() {
+        // the scratch of each worker; a task is done with it before it forks
+        ThreadLocal<XExtensionScratch> scratch = ThreadLocal.withInitial(XExtensionScratch::new);
+        Queue<EpisodeMoListUtilityList> found = new ConcurrentLinkedQueue<>();
+        List<XEpisodeTask> tasks = new ArrayList<>();
+        for (EpisodeMoListUtilityList single : this.XCandidatesWithMoListAndUtilityList) {
+            tasks.add(new XEpisodeTask(single, scratch, found));
+        }
+        this.pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+
+        this.XCandidatesWithMoListAndUtilityList.addAll(found);
+        this.XCandidatesWithMoListAndUtilityList.sort((a, b) -> this.XEpisodes.compare(a.getEpisode(), b.getEpisode()));
+    }
+
+    /**
+     * implements the buffers used to extend an X episode
+     */
+    private class XExtensionScratch {
+        // the occurrences of the extended episodes, by event
+        final OccurrenceList.Buckets mapFres = new OccurrenceList.Buckets(complexSequence.getAlphabetSize());
+        // the merge of the extensions of the occurrences
+        final OccurrenceList.Merge merge = new OccurrenceList.Merge();
+    }
+
+    /**
+     * implements the task growing the subtree of an X episode
+     */
+    @SuppressWarnings("serial")
+    private class XEpisodeTask extends RecursiveAction {
+        private final EpisodeMoListUtilityList episode;
+        private final ThreadLocal<XExtensionScratch> scratch;
+        private final Queue<EpisodeMoListUtilityList> found;
+
+        XEpisodeTask(EpisodeMoListUtilityList episode, ThreadLocal<XExtensionScratch> scratch,
+                     Queue<EpisodeMoListUtilityList> found) {
+            this.episode = episode;
+            this.scratch = scratch;
+            this.found = found;
+        }
+
+        @Override
+        protected void compute() {
+            List<EpisodeMoListUtilityList> children = new ArrayList<>();
+            extendXEpisode(this.episode, this.scratch.get(), children);
+            this.found.addAll(children);
+            List<XEpisodeTask> childTasks = new ArrayList<>();
+            for (EpisodeMoListUtilityList child : children) {
+                childTasks.add(new XEpisodeTask(child, this.scratch, this.found));
+            }
+            invokeAll(childTasks);
+        }
+    }
+
+    /**
+     * Find the X episodes that extend an X episode with one greater event and
+     * reach minsup
+     *
+     * @param EpisodeMo the episode and its occurrences
+     * @param scratch   the buffers of the worker, mapFres being empty and left
+     *                  empty
+     * @param children  the list receiving the extended episodes, by ascending
+     *                  last event
+     */
+    private void extendXEpisode(EpisodeMoListUtilityList EpisodeMo, XExtensionScratch scratch,
+                                List<EpisodeMoListUtilityList> children) {
+        int episode = EpisodeMo.getEpisode();
+        int compareKey = this.XEpisodes.getEvent(episode);
+
+        OccurrenceList moPositionAndUtilityList = EpisodeMo.getOccurrences();
+
+        if (useEventIndex(compareKey, moPositionAndUtilityList.size(), () -> getXScanCost(moPositionAndUtilityList))) {
+            extendXByIndex(moPositionAndUtilityList, compareKey, scratch);
+        } else {
+            extendXByScan(moPositionAndUtilityList, compareKey, scratch);
+        }
+        // Add each pair of fresMap such that |value| ≥ minsup into XFreAppear;
+        OccurrenceList.Buckets mapFres = scratch.mapFres;
+        mapFres.sortEvents();
+        for (int e = 0; e < mapFres.size(); e++) {
+            int key = mapFres.getEvent(e);
+            // the occurrences have distinct intervals, so their number is the support
+            if (mapFres.get(key).size() >= this.minSupport && isPromisingAntecedent(mapFres.get(key))) {
+                int newKey = this.XEpisodes.add(episode, key);
+                EpisodeMoListUtilityList episodeMoListUtilityList = new EpisodeMoListUtilityList(newKey, mapFres.take(key));
+                children.add(episodeMoListUtilityList);
+            }
+        }
+        mapFres.clear();
+    }
+
+    /**
+     * Check the antecedent utility upper bound of an X episode, and count the
+     * episode as pruned if it is below minUtility.
+     * <p>
+     * The occurrence [s', e'] of an extension of the episode (or of the episode
+     * itself) contains an occurrence [s, e] of the episode, and fits in XSpan:
+     * e - XSpan < s' <= s and e <= e' < s' + XSpan. The utility of an
+     * occurrence of one of its rules counted by RuleAggregator is at most the
+     * total utility of [s', e' + XYSpan + YSpan - 2], and each antecedent
+     * interval is counted in at most one group of occurrences of a rule. The
+     * sum of these totals over the intervals [s', e'] containing each
+     * occurrence of the episode is thus an upper bound of the utility of the
+     * rules of the episode and of its extensions.
+     *
+     * @param occurrences the occurrences of the episode, one per interval
+     * @return false if the episode and its extensions can be pruned
+     */
+    private boolean isPromisingAntecedent(OccurrenceList occurrences) {
+        if (!this.antecedentUtilityPruning) {
+            return true;
+        }
+        int conseSpan = this.XYSpan + this.YSpan - 2;
+        long upperBound = 0;
+        for (int o = 0; o < occurrences.size(); o++) {
+            int start = occurrences.getStart(o);
+            int end = occurrences.getEnd(o);
+            for (int antiStart = end - this.XSpan + 1; antiStart <= start; antiStart++) {
+                for (int antiEnd = end; antiEnd < antiStart + this.XSpan; antiEnd++) {
+                    upperBound += this.complexSequence.getTotalUtilityOfDuration(antiStart, antiEnd + conseSpan);
+                }
+            }
+            // the bound is only compared with minUtility
+            if (upperBound >= this.minUtility) {
+                return true;
+            }
+        }
+        this.antecedentUtilityPruneCount.increment();
+        return false;
+    }
+
+    /**
+     * Extend the occurrences of an X episode with the events greater than its
+     * last event, by scanning the timepoints of their windows.
+     * <p>
+     * An occurrence [start, end] extended at timepoint j gives the interval
+     * [min(j, start), max(j, end)], which grows with j, so the scan of its window
+     * [end - XSpan + 1, start + XSpan) gives its extensions by end, then by
+     * start. The scans of all the occurrences are merged, so the extensions of
+     * each event come by end, then by start, and the redundant extensions of an
+     * interval are merged when they are added.
+     *
+     * @param moPositionAndUtilityList the occurrences of the episode, by end
+     *                                 then by start
+     * @param compareKey               the last event of the episode
+     * @param scratch                  the buffers of the worker, receiving the
+     *                                 extended occurrences by event in mapFres
+     */
+    private void extendXByScan(OccurrenceList moPositionAndUtilityList, int compareKey, XExtensionScratch scratch) {
+        OccurrenceList.Buckets mapFres = scratch.mapFres;
+        OccurrenceList.Merge merge = scratch.merge;
+        merge.reset(moPositionAndUtilityList.size());
+        int next = 0;
+        while (true) {
+            // an occurrence has no extension ending before its end, it joins the merge when it may give the smallest one
+            while (next < moPositionAndUtilityList.size() && (merge.isEmpty() || moPositionAndUtilityList.getEnd(next) <= merge.getTopEnd())) {
+                int start = moPositionAndUtilityList.getStart(next);
+                int end = moPositionAndUtilityList.getEnd(next);
+                int j = nextXTimepoint(Math.max(1, end - this.XSpan + 1), start + this.XSpan - 1, compareKey);
+                if (j < start + this.XSpan) {
+                    merge.push(next, j, Math.max(j, end), Math.min(j, start));
+                }
+                next++;
+            }
+            if (merge.isEmpty()) {
+                break;
+            }
+            int occurrence = merge.getTop();
+            int j = merge.getTopCursor();
+            int newStart = merge.getTopStart();
+            int newEnd = merge.getTopEnd();
+            int moUtility = moPositionAndUtilityList.getUtility(occurrence);
+            int last = this.complexSequence.getEnd(j);
+            for (int k = this.complexSequence.getFirstGreater(j, compareKey); k < last; k++) {
+                int event = this.complexSequence.getEvent(k);
+                int utility = this.complexSequence.getUtility(k);
+                mapFres.add(event, newStart, newEnd, moUtility + utility);
+            }
+
+            int start = moPositionAndUtilityList.getStart(occurrence);
+            int end = moPositionAndUtilityList.getEnd(occurrence);
+            j = nextXTimepoint(j + 1, start + this.XSpan - 1, compareKey);
+            if (j < start + this.XSpan) {
+                merge.advanceTop(j, Math.max(j, end), Math.min(j, start));
+            } else {
+                merge.removeTop();
+            }
+        }
+    }
+
+    /**
+     * Find the first timepoint of an interval having an event greater than key
+     * in the X view
+     *
+     * @param from the first timepoint
+     * @param to   the last timepoint
+     * @param key  an event code
+     * @return a timepoint, or to + 1 if there is none
+     */
+    private int nextXTimepoint(int from, int to, int key) {
+        int j = from;
+        while (j <= to && this.complexSequence.getFirstGreater(j, key) == this.complexSequence.getEnd(j)) {
+            j++;
+        }
+        return j;
+    }
+
+    /**
+     * Extend the occurrences of an X episode with the events greater than its
+     * last event, by walking the inverted index of each of these events. The
+     * occurrences are sorted by end, so the index of an event is walked
+     * forward. As with a scan, the walks of the windows of the occurrences are
+     * merged, so the extensions come by end, then by start.
+     *
+     * @param moPositionAndUtilityList the occurrences of the episode, by end
+     *                                 then by start
+     * @param compareKey               the last event of the episode
+     * @param scratch                  the buffers of the worker, receiving the
+     *                                 extended occurrences by event in mapFres
+     */
+    private void extendXByIndex(OccurrenceList moPositionAndUtilityList, int compareKey, XExtensionScratch scratch) {
+        OccurrenceList.Buckets mapFres = scratch.mapFres;
+        OccurrenceList.Merge merge = scratch.merge;
+        for (int event = compareKey + 1; event < this.complexSequence.getAlphabetSize(); event++) {
+            int indexStart = this.complexSequence.getIndexStart(event);
+            int indexEnd = this.complexSequence.getIndexEnd(event);
+            merge.reset(moPositionAndUtilityList.size());
+            int pos = indexStart;
+            int next = 0;
+            while (true) {
+                while (next < moPositionAndUtilityList.size() && (merge.isEmpty() || moPositionAndUtilityList.getEnd(next) <= merge.getTopEnd())) {
+                    int start = moPositionAndUtilityList.getStart(next);
+                    int end = moPositionAndUtilityList.getEnd(next);
+                    pos = this.complexSequence.gallopIndex(pos, indexEnd, end - this.XSpan + 1);
+                    if (pos < indexEnd && this.complexSequence.getIndexTid(pos) < start + this.XSpan) {
+                        int j = this.complexSequence.getIndexTid(pos);
+                        merge.push(next, pos, Math.max(j, end), Math.min(j, start));
                     }
-                    // Search the time intervals [interval.end + 1, interval.start + XSpan)
-                    for (int j = end + 1; j < start + XSpan; j++) {
-                        if (this.complexSequence.getEventSetAndItsUtilityByTID(j).isEmpty()) {
-                            continue;
-                        }
-                        List<ComplexSequence.EventUtility> pairs = this.complexSequence.getEventSetAndItsUtilityByTID(j);
-                        for (int k = 0; k < pairs.size(); k++) {
-                            int event = pairs.get(k).event;
-                            int utility = pairs.get(k).utility;
-                            if (event > compareKey) {
-                                if (this.mapFres.containsKey(event)) {
-                                    positionsAndUtility = new PositionsAndUtility(start, j, moUtility + utility);
-                                    this.mapFres.get(event).add(positionsAndUtility);
-                                } else {
-                                    List<PositionsAndUtility> positionsAndUtilityList = new ArrayList<>();
-                                    positionsAndUtility = new PositionsAndUtility(start, j, moUtility + utility);
-                                    positionsAndUtilityList.add(positionsAndUtility);
-                                    this.mapFres.put(event, positionsAndUtilityList);
-                                }
-                            }
-                        }
+                    next++;
+                }
+                if (merge.isEmpty()) {
+                    break;
+                }
+                int occurrence = merge.getTop();
+                int p = merge.getTopCursor();
+                mapFres.add(event, merge.getTopStart(), merge.getTopEnd(),
+                        moPositionAndUtilityList.getUtility(occurrence) + this.complexSequence.getIndexUtility(p));
+
+                int start = moPositionAndUtilityList.getStart(occurrence);
+                int end = moPositionAndUtilityList.getEnd(occurrence);
+                p++;
+                if (p < indexEnd && this.complexSequence.getIndexTid(p) < start + this.XSpan) {
+                    int j = this.complexSequence.getIndexTid(p);
+                    merge.advanceTop(p, Math.max(j, end), Math.min(j, start));
+                } else {
+                    merge.removeTop();
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the number of events in the windows of the occurrences of an X
+     * episode, which are visited by extendXByScan()
+     *
+     * @param occurrences the occurrences of the episode
+     * @return a number of events
+     */
+    private long getXScanCost(OccurrenceList occurrences) {
+        long cost = 0;
+        for (int o = 0; o < occurrences.size(); o++) {
+            cost += this.complexSequence.getEventCountOfDuration(occurrences.getEnd(o) - this.XSpan + 1, occurrences.getStart(o) + this.XSpan - 1);
+        }
+        return cost;
+    }
+
+    /**
+     * Collect the single-event consequents of the occurrences of an X episode,
+     * by walking the inverted index of the Y view of each event
+     *
+     * @param occurrences    the occurrences of the X episode
+     * @param greatestEnd    the greatest end of the occurrences
+     * @param conseRecodeMap the occurrences of the rules, by consequent event
+     */
+    private void collectConsequentsByIndex(OccurrenceList occurrences, int greatestEnd, RuleOccurrenceArena.Buckets conseRecodeMap) {
+        for (int event = 0; event < this.complexSequence.getAlphabetSize(); event++) {
+            int indexStart = this.complexSequence.getYIndexStart(event);
+            int indexEnd = this.complexSequence.getYIndexEnd(event);
+            // skip the events occurring only after the window of the last occurrence
+            if (indexStart == indexEnd || this.complexSequence.getYIndexTid(indexStart) >= greatestEnd + this.YSpan + this.XYSpan) {
+                continue;
+            }
+            int pos = indexStart;
+            for (int o = 0; o < occurrences.size(); o++) {
+                int start = occurrences.getStart(o);
+                int end = occurrences.getEnd(o);
+                int antiUtility = occurrences.getUtility(o);
+                if (pos > indexStart && this.complexSequence.getYIndexTid(pos - 1) > end) {
+                    pos = indexStart;
+                }
+                pos = this.complexSequence.gallopYIndex(pos, indexEnd, end + 1);
+                for (int p = pos; p < indexEnd && this.complexSequence.getYIndexTid(p) < end + this.YSpan + this.XYSpan; p++) {
+                    int i = this.complexSequence.getYIndexTid(p);
+                    int utility = this.complexSequence.getYIndexUtility(p);
+                    if (this.tighterUpperBound) {
+                        int remainingUtility = CalculateTigherUpperBound(end, i, i);
+                        conseRecodeMap.add(event, start, end, i, i, antiUtility + utility, antiUtility, remainingUtility);
+                    } else {
+                        conseRecodeMap.add(event, start, end, i, i, antiUtility + utility, 0, 0);
                     }
-                    // Search the time intervals [intStart, intEnd]
-                    for (int j = start; j <= end; j++) {
-                        if (this.complexSequence.getEventSetAndItsUtilityByTID(j).isEmpty()) {
-                            continue;
-                        }
-                        List<ComplexSequence.EventUtility> pairs = this.complexSequence.getEventSetAndItsUtilityByTID(j);
-                        for (int k = 0; k < pairs.size(); k++) {
-                            int event = pairs.get(k).event;
-                            int utility = pairs.get(k).utility;
-                            if (event > compareKey) {
-                                if (this.mapFres.containsKey(event)) {
-                                    positionsAndUtility = new PositionsAndUtility(start, end, moUtility + utility);
-                                    this.mapFres.get(event).add(positionsAndUtility);
-                                } else {
-                                    List<PositionsAndUtility> positionsAndUtilityList = new ArrayList<>();
-                                    positionsAndUtility = new PositionsAndUtility(start, end, moUtility + utility);
-                                    positionsAndUtilityList.add(positionsAndUtility);
-                                    this.mapFres.put(event, positionsAndUtilityList);
-                                }
-                            }
-                        }
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the number of events in the Y windows of the occurrences of an X
+     * episode
+     *
+     * @param occurrences the occurrences of the X episode
+     * @return a number of events
+     */
+    private long getConsequentScanCost(OccurrenceList occurrences) {
+        long cost = 0;
+        for (int o = 0; o < occurrences.size(); o++) {
+            int end = occurrences.getEnd(o);
+            cost += this.complexSequence.getYEventCountOfDuration(end + 1, end + this.YSpan + this.XYSpan - 1);
+        }
+        return cost;
+    }
+
+    /**
+     * Extend the occurrences of a rule with the consequent events greater than
+     * key, by walking the inverted index of each of these events. Each event
+     * gets its occurrences in the same order as with a scan of the Y view.
+     *
+     * @param occurrences the arena holding the occurrences of the rule
+     * @param from        the first occurrence of the rule
+     * @param to          the end of the occurrences of the rule
+     * @param key         the last event of the consequent
+     * @param tempRuleMap the occurrences of the extended rules, by event
+     */
+    private void extendRuleByIndex(RuleOccurrenceArena occurrences, int from, int to, int key, RuleOccurrenceArena.Buckets tempRuleMap) {
+        for (int event = key + 1; event < this.complexSequence.getAlphabetSize(); event++) {
+            int indexStart = this.complexSequence.getYIndexStart(event);
+            int indexEnd = this.complexSequence.getYIndexEnd(event);
+            int pos = indexStart;
+            for (int o = from; o < to; o++) {
+                int antiEnd = occurrences.getAntiEnd(o);
+                int occurConseStart = occurrences.getConseStart(o);
+                int occurConseEnd = occurrences.getConseEnd(o);
+                // the consequent is extended in [intervalStart, Y.start), [Y.start, Y.end]
+                // and (Y.end, intervalEnd], as by a scan
+                int intervalStart = Math.max(antiEnd + 1, occurConseEnd - this.YSpan + 1);
+                int intervalEnd = Math.max(occurConseEnd, Math.min(antiEnd + this.XYSpan + this.YSpan - 2, occurConseStart + this.YSpan - 1));
+                if (pos > indexStart && this.complexSequence.getYIndexTid(pos - 1) >= intervalStart) {
+                    pos = indexStart;
+                }
+                pos = this.complexSequence.gallopYIndex(pos, indexEnd, intervalStart);
+                for (int p = pos; p < indexEnd; p++) {
+                    int i = this.complexSequence.getYIndexTid(p);
+                    if (i > intervalEnd) {
+                        break;
+                    }
+                    int utility = this.complexSequence.getYIndexUtility(p);
+                    int conseStart = Math.min(i, occurConseStart);
+                    int conseEnd = Math.max(i, occurConseEnd);
+                    if (this.tighterUpperBound) {
+                        int remainingUtility = CalculateTigherUpperBound(antiEnd, conseStart, conseEnd);
+                        tempRuleMap.add(event, occurrences.getAntiStart(o), antiEnd, conseStart, conseEnd, occurrences.getUtility(o) + utility, occurrences.getAntiUtility(o), remainingUtility);
+                    } else {
+                        tempRuleMap.add(event, occurrences.getAntiStart(o), antiEnd, conseStart, conseEnd, occurrences.getUtility(o) + utility, 0, 0);
                     }
                 }
-                // Add each pair of fresMap such that |value| ≥ minsup into XFreAppear;
-                for (Map.Entry<Integer, List<PositionsAndUtility>> entry : this.mapFres.entrySet()) {
-                    Integer key = entry.getKey();
-                    List<PositionsAndUtility> value = entry.getValue();
-                    value.sort(new myComparator());
-                    List<PositionsAndUtility> newValue = new ArrayList<>();
-                    for (int i = 0; i < value.size(); i++) {
-                        if (i == 0 || !(value.get(i).start == newValue.get(newValue.size() - 1).start && value.get(i).end == newValue.get(newValue.size() - 1).end)) {
-                            newValue.add(value.get(i));
+            }
+        }
+    }
+
+    /**
+     * Get the number of events in the windows where the occurrences of a rule
+     * can be extended
+     *
+     * @param occurrences the arena holding the occurrences of the rule
+     * @param from        the first occurrence of the rule
+     * @param to          the end of the occurrences of the rule
+     * @return a number of events
+     */
+    private long getRuleScanCost(RuleOccurrenceArena occurrences, int from, int to) {
+        long cost = 0;
+        for (int o = from; o < to; o++) {
+            int antiEnd = occurrences.getAntiEnd(o);
+            int conseStart = occurrences.getConseStart(o);
+            int conseEnd = occurrences.getConseEnd(o);
+            int intervalStart = Math.max(antiEnd + 1, conseEnd - this.YSpan + 1);
+            int intervalEnd = Math.max(conseEnd, Math.min(antiEnd + this.XYSpan + this.YSpan - 2, conseStart + this.YSpan - 1));
+            cost += this.complexSequence.getYEventCountOfDuration(intervalStart, intervalEnd);
+        }
+        return cost;
+    }
+
+    /**
+     * Choose how to extend occurrences: by scanning the timepoints of their
+     * windows, or by walking the inverted index of each event greater than key
+     *
+     * @param key             the events greater than key are searched
+     * @param occurrenceCount the number of occurrences
+     * @param scanCost        gives the number of events a scan would visit
+     * @return true to use the inverted index
+     */
+    private boolean useEventIndex(int key, int occurrenceCount, LongSupplier scanCost) {
+        switch (this.extensionMode) {
+            case INDEX:
+                return true;
+            case ADAPTIVE:
+                // each event greater than key is searched in the index for each occurrence
+                long indexCost = (long) (this.complexSequence.getAlphabetSize() - key - 1) * occurrenceCount * this.indexSearchCost;
+                return indexCost < scanCost.getAsLong();
+            default:
+                return false;
+        }
+    }
+
+    public void miningHUPOER() {
+        if (this.pool != null) {
+            miningHUPOERInParallel();
+            return;
+        }
+        RuleMiningScratch scratch = new RuleMiningScratch();
+        for (EpisodeMoListUtilityList antiEpisodeUtilityList : this.XCandidatesWithMoListAndUtilityList) {
+            mineRulesOfAntecedent(antiEpisodeUtilityList, scratch);
+            writeRules(scratch.rules);
+            scratch.rules.setLength(0);
+        }
+    }
+
+    /**
+     * Mine the rules of the antecedents in parallel, by windows of
+     * RULE_MINING_WINDOW consecutive antecedents, the antecedents with the most
+     * occurrences of a window first. Each worker has its own scratch, and the
+     * rules of each antecedent are written in the order of the antecedents, so
+     * the output is the same as the one of a sequential run. A window is
+     * submitted once the window before the previous one is mined, so the rules
+     * waiting to be written are those of at most two windows.
+     */
+    private void miningHUPOERInParallel() {
+        List<EpisodeMoListUtilityList> antecedents = this.XCandidatesWithMoListAndUtilityList;
+        ThreadLocal<RuleMiningScratch> scratch = ThreadLocal.withInitial(RuleMiningScratch::new);
+        OrderedRuleWriter orderedWriter = new OrderedRuleWriter(antecedents.size());
+
+        List<ForkJoinTask<?>> previousTasks = new ArrayList<>();
+        for (int windowStart = 0; windowStart < antecedents.size(); windowStart += RULE_MINING_WINDOW) {
+            int windowEnd = Math.min(antecedents.size(), windowStart + RULE_MINING_WINDOW);
+            Integer[] byOccurrenceCount = new Integer[windowEnd - windowStart];
+            for (int i = 0; i < byOccurrenceCount.length; i++) {
+                byOccurrenceCount[i] = windowStart + i;
+            }
+            Arrays.sort(byOccurrenceCount, Comparator.comparingInt((Integer i) -> -antecedents.get(i).getOccurrences().size()));
+
+            List<ForkJoinTask<?>> tasks = new ArrayList<>();
+            for (int index : byOccurrenceCount) {
+                tasks.add(this.pool.submit(() -> {
+                    RuleMiningScratch workerScratch = scratch.get();
+                    mineRulesOfAntecedent(antecedents.get(index), workerScratch);
+                    orderedWriter.complete(index, workerScratch.rules.toString());
+                    workerScratch.rules.setLength(0);
+                }));
+            }
+            for (ForkJoinTask<?> task : previousTasks) {
+                task.join();
+            }
+            previousTasks = tasks;
+        }
+        for (ForkJoinTask<?> task : previousTasks) {
+            task.join();
+        }
+    }
+
+    /**
+     * Grow the X episodes depth first in the calling thread, and mine the rules
+     * of each X episode in threadCount rule mining threads as soon as it is
+     * found. The episodes are handed over through a bounded queue, so the
+     * growth waits when the rule mining is behind, and an episode is released
+     * once its rules are mined and its subtree is grown. The rules of each
+     * antecedent are written together, in the order in which the antecedents
+     * are mined. The growth stops when a rule mining thread fails, and the
+     * rule mining threads are stopped when the growth fails; the first failure
+     * is rethrown.
+     */
+    private void miningXEventSetAndHUPOERPipelined() {
+        BlockingQueue<EpisodeMoListUtilityList> queue = new ArrayBlockingQueue<>(this.pipelineCapacity);
+        // the end of the episodes, one for each rule mining thread
+        EpisodeMoListUtilityList endOfEpisodes = new EpisodeMoListUtilityList(EpisodeTrie.ROOT, new OccurrenceList());
+        // the failures of the rule mining threads
+        List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+
+        Thread[] ruleMiners = new Thread[this.threadCount];
+        for (int t = 0; t < ruleMiners.length; t++) {
+            RuleMiningScratch scratch = new RuleMiningScratch();
+            ruleMiners[t] = new Thread(() -> {
+                try {
+                    EpisodeMoListUtilityList antecedent;
+                    while ((antecedent = queue.take()) != endOfEpisodes) {
+                        // after a failure, the episodes are still taken so the growth never waits forever
+                        if (failures.isEmpty()) {
+                            try {
+                                mineRulesOfAntecedent(antecedent, scratch);
+                                synchronized (this.writer) {
+                                    writeRules(scratch.rules);
+                                }
+                            } catch (RuntimeException | Error e) {
+                                failures.add(e);
+                            }
+                            scratch.rules.setLength(0);
                         }
                     }
-                    if (newValue.size() >= this.minSupport) {
-                        List<Integer> newKey = new ArrayList<Integer>(episode);
-                        newKey.add(key);
-                        EpisodeMoListUtilityList episodeMoListUtilityList = new EpisodeMoListUtilityList(newKey, value);
-                        this.XCandidatesWithMoListAndUtilityList.add(episodeMoListUtilityList);
-                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
                 }
-                maxIndex = this.XCandidatesWithMoListAndUtilityList.size();
+            }, "rule-miner-" + t);
+            // a rule mining thread never keeps the JVM alive
+            ruleMiners[t].setDaemon(true);
+            ruleMiners[t].start();
+        }
+
+        boolean finished = false;
+        try {
+            XExtensionScratch scratch = new XExtensionScratch();
+            List<EpisodeMoListUtilityList> singleEpisodes = createSingleXEpisodes();
+            for (int i = 0; i < singleEpisodes.size() && failures.isEmpty(); i++) {
+                EpisodeMoListUtilityList single = singleEpisodes.get(i);
+                singleEpisodes.set(i, null);
+                growXEpisodeDepthFirst(single, scratch, queue, failures);
             }
-        } catch (Exception e) {
-            e.printStackTrace();
+            for (Thread ruleMiner : ruleMiners) {
+                queue.put(endOfEpisodes);
+            }
+            for (Thread ruleMiner : ruleMiners) {
+                ruleMiner.join();
+            }
+            finished = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("the pipelined mining was interrupted", e);
         } finally {
+            if (!finished) {
+                // the growth failed or was interrupted: stop the rule mining threads
+                stopThreads(ruleMiners);
+            }
+        }
+        if (!failures.isEmpty()) {
+            Throwable failure = failures.get(0);
+            if (failure instanceof Error) {
+                throw (Error) failure;
+            }
+            throw (RuntimeException) failure;
+        }
+    }
+
+    /**
+     * Interrupt some threads and wait for their end
+     *
+     * @param threads the threads
+     */
+    private static void stopThreads(Thread[] threads) {
+        boolean interrupted = false;
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+        for (Thread thread : threads) {
+            while (thread.isAlive()) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Hand an X episode to the rule mining threads, then grow its subtree
+     * depth first. The growth stops once a rule mining thread has failed.
+     *
+     * @param episode  the episode and its occurrences
+     * @param scratch  the buffers of the X growth
+     * @param queue    the queue of the rule mining threads
+     * @param failures the failures of the rule mining threads
+     */
+    private void growXEpisodeDepthFirst(EpisodeMoListUtilityList episode, XExtensionScratch scratch,
+                                        BlockingQueue<EpisodeMoListUtilityList> queue, List<Throwable> failures) throws InterruptedException {
+        queue.put(episode);
+        List<EpisodeMoListUtilityList> children = new ArrayList<>();
+        extendXEpisode(episode, scratch, children);
+        for (int i = 0; i < children.size() && failures.isEmpty(); i++) {
+            EpisodeMoListUtilityList child = children.get(i);
+            children.set(i, null);
+            growXEpisodeDepthFirst(child, scratch, queue, failures);
+        }
+    }
+
+    /**
+     * implements the buffers used to mine the rules of one antecedent
+     */
+    private class RuleMiningScratch {
+        // the occurrences of the rules with one consequent event, by event
+        final RuleOccurrenceArena.Buckets conseRecodeMap = new RuleOccurrenceArena.Buckets(complexSequence.getAlphabetSize());
+        // the occurrences of the extended rules, by event
+        final RuleOccurrenceArena.Buckets tempRuleMap = new RuleOccurrenceArena.Buckets(complexSequence.getAlphabetSize());
+        // the occurrences of the rules of two consecutive levels of the consequent growth
+        final RuleOccurrenceArena[] levelOccurrences = {new RuleOccurrenceArena(), new RuleOccurrenceArena()};
+        // the aggregation of the occurrences of a candidate rule
+        final RuleAggregator aggregator = new RuleAggregator();
+        // the consequent windows of the antecedent ends, null if disabled
+        final ConsequentWindowCache windowCache;
+        // the consequents of the rules of the antecedent being mined
+        final EpisodeTrie conseEpisodes = new EpisodeTrie();
+        // the rules found, in the output format
+        final StringBuilder rules = new StringBuilder();
+        // DecimalFormat is not thread-safe
+        final DecimalFormat formatter = new DecimalFormat("#.####");
+        // the occurrences of the rule of each depth of the depth-first growth,
+        // and of its extensions by event
+        final List<RuleOccurrenceArena> depthOccurrences = new ArrayList<>();
+        final List<RuleOccurrenceArena.Buckets> depthRuleMaps = new ArrayList<>();
+
+        RuleMiningScratch() {
+            if (consequentWindowCacheSize > 0) {
+                this.windowCache = new ConsequentWindowCache(consequentWindowCacheSize);
+                windowCaches.add(this.windowCache);
+            } else {
+                this.windowCache = null;
+            }
+        }
+
+        /**
+         * Get the occurrences of the rule with a consequent of some size on the
+         * current path of the depth-first growth
+         */
+        RuleOccurrenceArena getDepthOccurrences(int depth) {
+            while (this.depthOccurrences.size() <= depth) {
+                this.depthOccurrences.add(new RuleOccurrenceArena());
+            }
+            return this.depthOccurrences.get(depth);
+        }
+
+        /**
+         * Get the occurrences of the extensions of the rule of a depth
+         */
+        RuleOccurrenceArena.Buckets getDepthRuleMap(int depth) {
+            while (this.depthRuleMaps.size() <= depth) {
+                this.depthRuleMaps.add(new RuleOccurrenceArena.Buckets(complexSequence.getAlphabetSize()));
+            }
+            return this.depthRuleMaps.get(depth);
+        }
+    }
+
+    /**
+     * implements the aggregation of the occurrences of a candidate rule: its
+     * possible count, its real count, its utility and its REEU. For redundant
+     * occurrences of a rule, we take the maximum utility as their utility and
+     * their REEU.
+     * <p>
+     * The occurrences are walked until the result is known: the walk stops when
+     * the possible count can no longer reach minCount, or when it has reached
+     * it, the real count can no longer reach it and the REEU is not needed or
+     * reaches minutil. The real count and the utility are thus exact if the
+     * real count reaches minCount, and the REEU if it is below minutil.
+     */
+    private class RuleAggregator {
+        int possibleCount;
+        int realCount;
+        int utility;
+        int remainingUtility;
+
+        /**
+         * Aggregate the occurrences of the rule extended with an event
+         *
+         * @param buckets  the occurrences of the extended rules, by event
+         * @param event    the event extending the rule
+         * @param minCount the count a rule needs, antiCount * minConfidence
+         * @return false if the possible count does not reach minCount
+         */
+        boolean aggregate(RuleOccurrenceArena.Buckets buckets, int event, double minCount) {
+            RuleOccurrenceArena occurrences = buckets.getOccurrences();
+            this.possibleCount = 0;
+            this.realCount = 0;
+            this.utility = 0;
+            this.remainingUtility = 0;
+            int possibleStart = -1;
+            int realStart = -1;
+            int realUtility = 0;
+            int realRemainingUtility = 0;
+            // the number of occurrences after the current one
+            int left = buckets.getCount(event);
+            for (int o = buckets.getFirst(event); o >= 0; o = buckets.getNext(o)) {
+                left--;
+                int antiStart = occurrences.getAntiStart(o);
+                int occurUtility = occurrences.getUtility(o);
+                boolean inXYSpan = occurrences.getConseStart(o) - occurrences.getAntiEnd(o) < XYSpan;
+                if (antiStart > realStart && inXYSpan) {
+                    this.realCount++;
+                    realStart = occurrences.getConseEnd(o);
+                    realUtility = occurUtility;
+                    this.utility += occurUtility;
+                } else if (inXYSpan && occurUtility > realUtility) {
+                    this.utility += occurUtility - realUtility;
+                    realUtility = occurUtility;
+                }
+
+                if (tighterUpperBound) {
+                    int occurREEU = occurrences.getAntiUtility(o) + occurrences.getRemainingUtility(o);
+                    if (antiStart > possibleStart) {
+                        realRemainingUtility = occurREEU;
+                        this.remainingUtility += occurREEU;
+                    } else if (occurREEU > realRemainingUtility) {
+                        this.remainingUtility += occurREEU - realRemainingUtility;
+                        realRemainingUtility = occurREEU;
+                    }
+                }
+                if (antiStart > possibleStart) {
+                    this.possibleCount++;
+                    possibleStart = occurrences.getConseEnd(o);
+                }
 
+                // each occurrence left adds at most one to a count
+                if (this.possibleCount + left < minCount) {
+                    return false;
+                }
+                if (this.possibleCount >= minCount && this.realCount + left < minCount
+                        && (!tighterUpperBound || this.remainingUtility >= minUtility)) {
+                    return true;
+                }
+            }
+            return this.possibleCount >= minCount;
         }
     }
 
     /**
-     * a Comparator to sort interval by its end.
+     * implements the writing of the rules of the antecedents in their order,
+     * whatever the order in which they are mined
      */
-    public class myComparator implements Comparator<PositionsAndUtility> {
-        // a[0]: start,  a[1]:end,  a[2]:utility
-        public int compare(PositionsAndUtility a, PositionsAndUtility b) {
-            if (a.end == b.end) {
-                return a.start - b.start;
+    private class OrderedRuleWriter {
+        // the rules of the antecedents mined but not yet written
+        private final String[] pending;
+        // the index of the next antecedent to write
+        private int next = 0;
+
+        OrderedRuleWriter(int antecedentCount) {
+            this.pending = new String[antecedentCount];
+        }
+
+        /**
+         * Record the rules of an antecedent, and write those of all the
+         * antecedents that are now complete in order
+         */
+        synchronized void complete(int index, String rules) {
+            this.pending[index] = rules;
+            while (this.next < this.pending.length && this.pending[this.next] != null) {
+                writeRules(this.pending[this.next]);
+                this.pending[this.next] = null;
+                this.next++;
             }
-            return a.end - b.end;
         }
     }
 
-    public void miningHUPOER() {
-        Map<Integer, List<RuleIntervalUtility>> conseRecodeMap = new HashMap<>();
-        for (EpisodeMoListUtilityList antiEpisodeUtilityList : this.XCandidatesWithMoListAndUtilityList) {
-            List<Integer> antiEpisode = antiEpisodeUtilityList.getEpisodeList();
-            List<PositionsAndUtility> PositionUtilityList = antiEpisodeUtilityList.getPositionAndUtilityList();
-            int antiStart = -1;
-            int antiCount = 0;
-            for (PositionsAndUtility PositionUtility : PositionUtilityList) {
-                if (PositionUtility.start <= antiStart) {
-                    continue;
+    /**
+     * Write rules to the output file
+     *
+     * @param rules the rules, in the output format
+     */
+    private void writeRules(CharSequence rules) {
+        try {
+            writer.append(rules);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Mine the rules of an antecedent
+     *
+     * @param antiEpisodeUtilityList the antecedent and its occurrences
+     * @param scratch                the buffers of the thread, the rules found
+     *                               are appended to scratch.rules
+     */
+    private void mineRulesOfAntecedent(EpisodeMoListUtilityList antiEpisodeUtilityList, RuleMiningScratch scratch) {
+        RuleOccurrenceArena.Buckets conseRecodeMap = scratch.conseRecodeMap;
+        RuleAggregator aggregator = scratch.aggregator;
+
+        // the antecedent is materialized once for the checks and the output of its rules
+        int[] antiEpisode = this.XEpisodes.toArray(antiEpisodeUtilityList.getEpisode());
+        OccurrenceList PositionUtilityList = antiEpisodeUtilityList.getOccurrences();
+        // the support of the antecedent is computed with its occurrences
+        int antiCount = antiEpisodeUtilityList.getAntiCount();
+        if (antiCount < this.minSupport) {
+            return;
+        }
+        conseRecodeMap.clear();
+        scratch.conseEpisodes.clear();
+
+        if (useEventIndex(-1, PositionUtilityList.size(), () -> getConsequentScanCost(PositionUtilityList))) {
+            collectConsequentsByIndex(PositionUtilityList, antiEpisodeUtilityList.getGreatestEnd(), conseRecodeMap);
+        } else if (scratch.windowCache != null) {
+            ConsequentWindowCache windowCache = scratch.windowCache;
+            for (int o = 0; o < PositionUtilityList.size(); o++) {
+                int antiEpisodeStart = PositionUtilityList.getStart(o);
+                int antiEpisodeEnd = PositionUtilityList.getEnd(o);
+                int antiEpisodeUtility = PositionUtilityList.getUtility(o);
+                int slot = windowCache.find(antiEpisodeEnd);
+                if (slot < 0) {
+                    slot = windowCache.allocate(antiEpisodeEnd);
+                    for (int i = antiEpisodeEnd + 1; i < antiEpisodeEnd + this.YSpan + this.XYSpan; i++) {
+                        int last = this.complexSequence.getYEnd(i);
+                        int first = this.complexSequence.getYStart(i);
+                        if (first == last) {
+                            continue;
+                        }
+                        int remainingUtility = this.tighterUpperBound ? CalculateTigherUpperBound(antiEpisodeEnd, i, i) : 0;
+                        for (int z = first; z < last; z++) {
+                            windowCache.add(slot, i, this.complexSequence.getYEvent(z), this.complexSequence.getYUtility(z), remainingUtility);
+                        }
+                    }
+                }
+                int[] tids = windowCache.getTids(slot);
+                int[] events = windowCache.getEvents(slot);
+                int[] utilities = windowCache.getUtilities(slot);
+                int[] remainingUtilities = windowCache.getRemainingUtilities(slot);
+                int antiUtility = this.tighterUpperBound ? antiEpisodeUtility : 0;
+                for (int k = 0; k < windowCache.size(slot); k++) {
+                    conseRecodeMap.add(events[k], antiEpisodeStart, antiEpisodeEnd, tids[k], tids[k],
+                            antiEpisodeUtility + utilities[k], antiUtility, remainingUtilities[k]);
                 }
-                antiCount++;
-                antiStart = PositionUtility.end;
-            }
-            if (antiCount < this.minSupport) {
-                continue;
             }
-            conseRecodeMap.clear();
-
-            for (PositionsAndUtility PositionUtility : PositionUtilityList) {
-                int antiEpisodeStart = PositionUtility.start;
-                int antiEpisodeEnd = PositionUtility.end;
-                int antiEpisodeUtility = PositionUtility.utility;
+        } else {
+            for (int o = 0; o < PositionUtilityList.size(); o++) {
+                int antiEpisodeStart = PositionUtilityList.getStart(o);
+                int antiEpisodeEnd = PositionUtilityList.getEnd(o);
+                int antiEpisodeUtility = PositionUtilityList.getUtility(o);
                 for (int i = antiEpisodeEnd + 1; i < antiEpisodeEnd + this.YSpan + this.XYSpan; i++) {
-                    if (this.complexSequence.getYEventSetAndItsUtilityByTID(i).isEmpty()) {
-                        continue;
-                    }
-                    List<ComplexSequence.EventUtility> pairs = this.complexSequence.getYEventSetAndItsUtilityByTID(i);
-                    for (ComplexSequence.EventUtility pair : pairs) {
-                        int event = pair.event;
-                        int utility = pair.utility;
-                        RuleIntervalUtility thisIntervalUtility;
+                    int last = this.complexSequence.getYEnd(i);
+                    for (int z = this.complexSequence.getYStart(i); z < last; z++) {
+                        int event = this.complexSequence.getYEvent(z);
+                        int utility = this.complexSequence.getYUtility(z);
                         if (this.tighterUpperBound) {
                             int remainingUtility = CalculateTigherUpperBound(antiEpisodeEnd, i, i);
-                            thisIntervalUtility = new RuleIntervalUtility(antiEpisodeStart, antiEpisodeEnd, i, i, antiEpisodeUtility + utility, antiEpisodeUtility, remainingUtility);
+                            conseRecodeMap.add(event, antiEpisodeStart, antiEpisodeEnd, i, i, antiEpisodeUtility + utility, antiEpisodeUtility, remainingUtility);
                         } else {
-                            thisIntervalUtility = new RuleIntervalUtility(antiEpisodeStart, antiEpisodeEnd, i, i, antiEpisodeUtility + utility);
-                        }
-                        if (conseRecodeMap.containsKey(event)) {
-                            conseRecodeMap.get(event).add(thisIntervalUtility);
-                        } else {
-                            ArrayList<RuleIntervalUtility> intervalUtilityList = new ArrayList<RuleIntervalUtility>();
-                            intervalUtilityList.add(thisIntervalUtility);
-                            conseRecodeMap.put(event, intervalUtilityList);
+                            conseRecodeMap.add(event, antiEpisodeStart, antiEpisodeEnd, i, i, antiEpisodeUtility + utility, 0, 0);
                         }
                     }
                 }
             }
+        }
 
-            for (Map.Entry<Integer, List<RuleIntervalUtility>> conseRecodeMapItem : conseRecodeMap.entrySet()) {
-                Integer key = conseRecodeMapItem.getKey();
-                List<UPOERRuleOccur> ruleOccur = new ArrayList<UPOERRuleOccur>();
-                List<RuleIntervalUtility> ruleList = conseRecodeMapItem.getValue();
-
+        conseRecodeMap.sortEvents();
+        for (int c = 0; c < conseRecodeMap.size(); c++) {
+            int key = conseRecodeMap.getEvent(c);
 
-                if (ruleList.size() < antiCount * this.minConfidence) {
-                    continue;
-                }
-                int possibleRuleStart = -1;
-                int possibleRuleCount = 0;
-                int realRuleStart = -1;
-                int realRuleCount = 0;
-                int realRuleUtility = 0;
-                int sumRuleUtility = 0;
-                int realRuleRemainingUtility = 0;
-                int sumRuleRemainingUtility = 0;
-
-                for (RuleIntervalUtility occur : ruleList) {
-
-                    if (occur.antiStart > realRuleStart && occur.conseStart - occur.antiEnd < this.XYSpan) {
-                        realRuleCount++;
-                        realRuleStart = occur.conseEnd;
-                        realRuleUtility = occur.utility;
-                        sumRuleUtility += occur.utility;
-                    }
-                    if (occur.antiStart <= realRuleStart && occur.conseStart - occur.antiEnd < this.XYSpan) {
-                        // for redundant occurrences of a rule, we take the maximum utility as their utility
-                        if (occur.utility > realRuleUtility) {
-                            sumRuleUtility -= realRuleUtility;
-                            sumRuleUtility += occur.utility;
-                            realRuleUtility = occur.utility;
-                        }
-                    }
+            if (conseRecodeMap.getCount(key) < antiCount * this.minConfidence) {
+                continue;
+            }
+            if (!aggregator.aggregate(conseRecodeMap, key, antiCount * this.minConfidence)) {
+                continue;
+            }
+            int conseEpisode = scratch.conseEpisodes.add(EpisodeTrie.ROOT, key);
 
-                    if (tighterUpperBound) {
-                        if (occur.antiStart <= possibleRuleStart) {
-                            if (occur.antiUtility + occur.remainingUtility > realRuleRemainingUtility) {
-                                // for redundant occurrences of a rule, we take the maximum utility as their REEU
-                                sumRuleRemainingUtility -= realRuleRemainingUtility;
-                                sumRuleRemainingUtility += occur.antiUtility + occur.remainingUtility;
-                                realRuleRemainingUtility = occur.antiUtility + occur.remainingUtility;
-                            }
-                        } else {
-                            realRuleRemainingUtility = occur.antiUtility + occur.remainingUtility;
-                            sumRuleRemainingUtility += occur.antiUtility + occur.remainingUtility;
-                        }
-                    }
+            if (aggregator.realCount >= antiCount * this.minConfidence && !scratch.conseEpisodes.equals(conseEpisode, antiEpisode) && aggregator.utility >= minUtility) {
+                // we save it
+                saveRule(antiEpisode, conseEpisode, antiCount, aggregator.realCount, aggregator.utility, scratch);
+            }
 
-                    if (occur.antiStart > possibleRuleStart) {
-                        possibleRuleCount++;
-                        possibleRuleStart = occur.conseEnd;
-                    }
-                }
-                if (possibleRuleCount < antiCount * this.minConfidence) {
-                    continue;
-                }
-                List<Integer> conseEpisode = new ArrayList<Integer>();
-                conseEpisode.add(key);
+            if (!isExpandableRule(antiEpisode, key, aggregator.remainingUtility)) {
+                continue;
+            }
 
-                if (realRuleCount >= antiCount * this.minConfidence && !antiEpisode.equals(conseEpisode) && sumRuleUtility >= minUtility) {
-                    // we save it
-                    saveRule(antiEpisode, conseEpisode, antiCount, realRuleCount, sumRuleUtility);
-                }
+            if (this.consequentGrowth == ConsequentGrowth.DEPTH_FIRST) {
+                RuleOccurrenceArena occurrences = scratch.getDepthOccurrences(1);
+                occurrences.clear();
+                conseRecodeMap.copyTo(key, occurrences);
+                growConsequentDepthFirst(antiEpisode, antiCount, conseEpisode, 1, scratch);
+            } else {
+                growConsequentBreadthFirst(antiEpisode, antiCount, conseEpisode, scratch);
+            }
+        }
+    }
 
-                Map<Integer, List<RuleIntervalUtility>> tempRuleMap = new HashMap<Integer, List<RuleIntervalUtility>>();
+    /**
+     * Check whether a rule may be extended, and count it as a candidate if so
+     *
+     * @param antiEpisode      the antecedent of the rule
+     * @param conseEvent       the last event of the consequent of the rule
+     * @param remainingUtility the REEU of the rule
+     * @return true if the consequent of the rule must be extended
+     */
+    private boolean isExpandableRule(int[] antiEpisode, int conseEvent, int remainingUtility) {
+        // WEUP strategy: for any x of X, and y of Y, if AWU(x,y) < minutil, there is no need to expand the rule X->Y
+        if (matrix) {
+            if (!isExpandByCooMapAfter(antiEpisode, conseEvent)) {
+                return false;
+            }
+        }
 
-                // WEUP strategy: if WEU(x,e) < minutil, there is no need to expand the rule X->{e}
-                if (matrix) {
-                    if (!isExpandByCooMapAfter(antiEpisode, key)) {
-                        continue;
-                    }
-                }
+        // REEUP strategy: if REEU(r) < minutil, then it is an unpromising rule
+        if (tighterUpperBound) {
+            if (remainingUtility < this.minUtility) {
+                return false;
+            }
+        }
+        this.CandidateNum.increment();
+        return true;
+    }
 
-                // REEUP strategy: if REEU(r) < minutil, then it is an unpromising rule
-                if (tighterUpperBound) {
-                    if (sumRuleRemainingUtility < this.minUtility) {
-                        continue;
-                    }
-                }
+    /**
+     * Grow the consequent of a rule level by level. The occurrences of the
+     * rules of a level are kept until the whole level is extended.
+     *
+     * @param antiEpisode  the antecedent
+     * @param antiCount    the support of the antecedent
+     * @param conseEpisode the node of the consequent with one event, whose
+     *                     occurrences are in the conseRecodeMap of the scratch
+     * @param scratch      the buffers of the thread
+     */
+    private void growConsequentBreadthFirst(int[] antiEpisode, int antiCount, int conseEpisode, RuleMiningScratch scratch) {
+        RuleOccurrenceArena.Buckets tempRuleMap = scratch.tempRuleMap;
+        RuleAggregator aggregator = scratch.aggregator;
+        int key = scratch.conseEpisodes.getEvent(conseEpisode);
+        List<UPOERRuleOccur> ruleOccur = new ArrayList<UPOERRuleOccur>();
+
+        // the occurrences of the rules of the level being extended, and of the next level
+        RuleOccurrenceArena levelOccurrences = scratch.levelOccurrences[0];
+        RuleOccurrenceArena nextLevelOccurrences = scratch.levelOccurrences[1];
+        // the arenas are reused by the rules of each consequent event
+        levelOccurrences.clear();
+        nextLevelOccurrences.clear();
+        scratch.conseRecodeMap.copyTo(key, levelOccurrences);
+
+        // extend a rule with i-item to rules with i+1-item
+        tempRuleMap.clear();
+        extendRule(levelOccurrences, 0, levelOccurrences.size(), key, tempRuleMap);
+        // scan tempRuleMap and put vaild rule in ruleAppear, and possible rule in
+        // ruleOccur
+        tempRuleMap.sortEvents();
+        for (int t = 0; t < tempRuleMap.size(); t++) {
+            int tempKey = tempRuleMap.getEvent(t);
+            if (tempRuleMap.getCount(tempKey) < antiCount * this.minConfidence) {
+                continue;
+            }
+            if (!aggregator.aggregate(tempRuleMap, tempKey, antiCount * this.minConfidence)) {
+                continue;
+            }
+            int tempConseEpisode = scratch.conseEpisodes.add(conseEpisode, tempKey);
 
-                this.CandidateNum++;
 
-                // extend a rule with i-item to rules with i+1-item
-                for (RuleIntervalUtility occur : ruleList) {
-                    // Map<Integer, Boolean> hasBeenSeem = new HashMap<>();
-                    int intervalStart = Math.max(occur.antiEnd + 1, occur.conseEnd - this.YSpan + 1);
-                    // search [intervalStart, Y.start) to extend the rule
-                    for (int i = intervalStart; i < occur.conseStart; ++i) {
-                        if (this.complexSequence.getYEventSetAndItsUtilityByTID(i).isEmpty()) {
-                            continue;
-                        }
-                        List<ComplexSequence.EventUtility> pairs = this.complexSequence.getYEventSetAndItsUtilityByTID(i);
-                        int PairSize = pairs.size();
-                        for (int z = PairSize - 1; z >= 0; z--) {
-                            ComplexSequence.EventUtility pair = pairs.get(z);
-                            int event = pair.event;
-                            int utility = pair.utility;
-                            // we expand the rule if the event > key
-                            if (event > key) {
-                                RuleIntervalUtility ruleIntervalUtility;
-                                if (this.tighterUpperBound) {
-                                    int remainingUtility = CalculateTigherUpperBound(occur.antiEnd, i, occur.conseEnd);
-                                    ruleIntervalUtility = new RuleIntervalUtility(occur.antiStart, occur.antiEnd, i, occur.conseEnd, occur.utility + utility, occur.antiUtility, remainingUtility);
-                                } else {
-                                    ruleIntervalUtility = new RuleIntervalUtility(occur.antiStart, occur.antiEnd, i, occur.conseEnd, occur.utility + utility);
-                                }
-                                if (tempRuleMap.containsKey(event)) {
-                                    tempRuleMap.get(event).add(ruleIntervalUtility);
-                                } else {
-                                    ArrayList<RuleIntervalUtility> appearTime = new ArrayList<>();
-                                    appearTime.add(ruleIntervalUtility);
-                                    tempRuleMap.put(event, appearTime);
-                                }
-                            } else {
-                                break;
-                            }
-                        }
-                    }
+            if (aggregator.realCount >= antiCount * this.minConfidence && !scratch.conseEpisodes.equals(tempConseEpisode, antiEpisode) && aggregator.utility >= minUtility) {
+                //this.HUPOERs.add(new UPOER(antiEpisode, tempConseEpisode, null, antiCount, aggregator.realCount, aggregator.utility));
+                saveRule(antiEpisode, tempConseEpisode, antiCount, aggregator.realCount, aggregator.utility, scratch);
+            }
+            int from = nextLevelOccurrences.size();
+            tempRuleMap.copyTo(tempKey, nextLevelOccurrences);
+            ruleOccur.add(new UPOERRuleOccur(tempConseEpisode, from, nextLevelOccurrences.size(), aggregator.utility, aggregator.remainingUtility));
+            MemoryLogger.getInstance().checkMemory();
+        }
+        int breadthSearthStart = 0;
+        int breadthSearthEnd = ruleOccur.size();
+        // the rules before levelEnd have their occurrences in levelOccurrences
+        int levelEnd = 0;
+        // extend a rule with i-item to rules with i+1-item
+        while (breadthSearthStart < breadthSearthEnd) {
+            if (breadthSearthStart == levelEnd) {
+                // the rules of the next level are extended, their arena is swapped with the one of this level
+                RuleOccurrenceArena swap = levelOccurrences;
+                levelOccurrences = nextLevelOccurrences;
+                nextLevelOccurrences = swap;
+                nextLevelOccurrences.clear();
+                levelEnd = breadthSearthEnd;
+            }
+            tempRuleMap.clear();
+            UPOERRuleOccur oneOccurRule = ruleOccur.get(breadthSearthStart);
+            breadthSearthStart++;
+            int episode = oneOccurRule.getEpisode();
+            int compareKey = scratch.conseEpisodes.getEvent(episode);
+            if (!isExpandableRule(antiEpisode, compareKey, oneOccurRule.getRemainingUtility())) {
+                continue;
+            }
 
-                    // search [Y.Start, Y.End] to extend the rule
-                    for (int i = occur.conseStart; i <= occur.conseEnd; ++i) {
-                        if (this.complexSequence.getYEventSetAndItsUtilityByTID(i).isEmpty()) {
-                            continue;
-                        }
-                        List<ComplexSequence.EventUtility> pairs = this.complexSequence.getYEventSetAndItsUtilityByTID(i);
-                        int PairSize = pairs.size();
-                        for (int z = PairSize - 1; z >= 0; z--) {
-                            ComplexSequence.EventUtility pair = pairs.get(z);
-                            int event = pair.event;
-                            int utility = pair.utility;
-                            if (event > key) {
-                                RuleIntervalUtility ruleIntervalUtility;
-                                if (this.tighterUpperBound) {
-                                    int remainingUtility = CalculateTigherUpperBound(occur.antiEnd, occur.conseStart, occur.conseEnd);
-                                    ruleIntervalUtility = new RuleIntervalUtility(occur.antiStart, occur.antiEnd, occur.conseStart, occur.conseEnd, occur.utility + utility, occur.antiUtility, remainingUtility);
-                                } else {
-                                    ruleIntervalUtility = new RuleIntervalUtility(occur.antiStart, occur.antiEnd, occur.conseStart, occur.conseEnd, occur.utility + utility);
-                                }
-                                if (tempRuleMap.containsKey(event)) {
-                                    tempRuleMap.get(event).add(ruleIntervalUtility);
-                                } else {
-                                    ArrayList<RuleIntervalUtility> appearTime = new ArrayList<>();
-                                    appearTime.add(ruleIntervalUtility);
-                                    tempRuleMap.put(event, appearTime);
-                                }
-                            } else {
-                                break;
-                            }
-                        }
-                    }
-                    int intervalEnd = Math.min(occur.antiEnd + this.XYSpan + this.YSpan - 2, occur.conseStart + this.YSpan - 1);
-                    // search [Y.end + 1, intervalEnd) to extend the rule
-                    for (int i = occur.conseEnd + 1; i <= intervalEnd; ++i) {
-                        if (this.complexSequence.getYEventSetAndItsUtilityByTID(i).isEmpty()) {
-                            continue;
-                        }
-                        List<ComplexSequence.EventUtility> pairs = this.complexSequence.getYEventSetAndItsUtilityByTID(i);
-                        int PairSize = pairs.size();
-                        for (int z = PairSize - 1; z >= 0; z--) {
-                            ComplexSequence.EventUtility pair = pairs.get(z);
-                            int event = pair.event;
-                            int utility = pair.utility;
-                            if (event > key) {
-                                RuleIntervalUtility ruleIntervalUtility;
-                                if (this.tighterUpperBound) {
-                                    int remainingUtility = CalculateTigherUpperBound(occur.antiEnd, occur.conseStart, i);
-                                    ruleIntervalUtility = new RuleIntervalUtility(occur.antiStart, occur.antiEnd, occur.conseStart, i, occur.utility + utility, occur.antiUtility, remainingUtility);
-                                } else {
-                                    ruleIntervalUtility = new RuleIntervalUtility(occur.antiStart, occur.antiEnd, occur.conseStart, i, occur.utility + utility);
-                                }
-                                if (tempRuleMap.containsKey(event)) {
-                                    tempRuleMap.get(event).add(ruleIntervalUtility);
-                                } else {
-                                    ArrayList<RuleIntervalUtility> appearTime = new ArrayList<>();
-                                    appearTime.add(ruleIntervalUtility);
-                                    tempRuleMap.put(event, appearTime);
-                                }
-                            } else {
-                                break;
-                            }
-                        }
-                    }
+            extendRule(levelOccurrences, oneOccurRule.getFrom(), oneOccurRule.getTo(), compareKey, tempRuleMap);
+            // scan tempRuleMap and put vaild rule in ruleAppear, and possible rule in
+            // ruleOccur
+            tempRuleMap.sortEvents();
+            for (int t = 0; t < tempRuleMap.size(); t++) {
+                int tempKey = tempRuleMap.getEvent(t);
+                if (tempRuleMap.getCount(tempKey) < antiCount * this.minConfidence) {
+                    continue;
                 }
-                // scan tempRuleMap and put vaild rule in ruleAppear, and possible rule in
-                // ruleOccur
-                for (Map.Entry<Integer, List<RuleIntervalUtility>> tempRecodeMapItem : tempRuleMap.entrySet()) {
-                    Integer tempKey = tempRecodeMapItem.getKey();
-                    List<RuleIntervalUtility> tempRuleList = tempRecodeMapItem.getValue();
-                    if (tempRuleList.size() < antiCount * this.minConfidence) {
-                        continue;
-                    }
-                    int tempPossibleRuleStart = -1;
-                    int tempPossibleRuleCount = 0;
-                    int tempRealRuleStart = -1;
-                    int tempRealRuleCount = 0;
-                    int tempRealRuleUtility = 0;
-                    int tempSumRuleUtility = 0;
-                    int tempRealRuleRemainingUtility = 0;
-                    int tempSumRuleRemainingUtility = 0;
-                    for (RuleIntervalUtility occur : tempRuleList) {
-                        if (occur.antiStart > tempRealRuleStart && occur.conseStart - occur.antiEnd < this.XYSpan) {
-                            tempRealRuleCount++;
-                            tempRealRuleStart = occur.conseEnd;
-                            tempRealRuleUtility = occur.utility;
-                            tempSumRuleUtility += occur.utility;
+                if (!aggregator.aggregate(tempRuleMap, tempKey, antiCount * this.minConfidence)) {
+                    continue;
+                }
+                int tempConseEpisode = scratch.conseEpisodes.add(episode, tempKey);
 
-                        }
-                        if (occur.antiStart <= tempRealRuleStart && occur.conseStart - occur.antiEnd < this.XYSpan) {
-                            // for redundant occurrences of a rule, we take the maximum utility as their utility
-                            if (occur.utility > tempRealRuleUtility) {
-                                tempSumRuleUtility -= tempRealRuleUtility;
-                                tempSumRuleUtility += occur.utility;
-                                tempRealRuleUtility = occur.utility;
-                            }
-                        }
+                if (aggregator.realCount >= antiCount * this.minConfidence && !scratch.conseEpisodes.equals(tempConseEpisode, antiEpisode) && aggregator.utility >= minUtility) {
+                    // we save it
+                    saveRule(antiEpisode, tempConseEpisode, antiCount, aggregator.realCount, aggregator.utility, scratch);
+                }
+                int nextFrom = nextLevelOccurrences.size();
+                tempRuleMap.copyTo(tempKey, nextLevelOccurrences);
+                ruleOccur.add(new UPOERRuleOccur(tempConseEpisode, nextFrom, nextLevelOccurrences.size(), aggregator.utility, aggregator.remainingUtility));
+            }
+            MemoryLogger.getInstance().checkMemory();
+            breadthSearthEnd = ruleOccur.size();
+        }
+    }
 
-                        if (tighterUpperBound) {
-                            if (occur.antiStart > tempPossibleRuleStart) {
-                                tempRealRuleRemainingUtility = occur.antiUtility + occur.remainingUtility;
-                                tempSumRuleRemainingUtility += occur.antiUtility + occur.remainingUtility;
-                            } else {
-                                if (occur.antiUtility + occur.remainingUtility > tempRealRuleRemainingUtility) {
-                                    tempSumRuleRemainingUtility -= tempRealRuleRemainingUtility;
-                                    tempSumRuleRemainingUtility += occur.antiUtility + occur.remainingUtility;
-                                    tempRealRuleRemainingUtility = occur.antiUtility + occur.remainingUtility;
-                                }
-                            }
-                        }
-                        if (occur.antiStart > tempPossibleRuleStart) {
-                            tempPossibleRuleCount++;
-                            tempPossibleRuleStart = occur.conseEnd;
-                        }
-                    }
-                    if (tempPossibleRuleCount < antiCount * this.minConfidence) {
-                        continue;
-                    }
-                    List<Integer> tempConseEpisode = new ArrayList<Integer>();
-                    tempConseEpisode.add(key);
-                    tempConseEpisode.add(tempKey);
+    /**
+     * Grow the consequent of a rule depth first. Each depth of the current path
+     * keeps, in its buffers, the occurrences of the rule being extended and of
+     * all its sibling extensions until the depth is done, so the memory is
+     * bounded by the sibling sets along the path instead of by a whole level.
+     * The rules found are the same as with the breadth-first growth.
+     *
+     * @param antiEpisode  the antecedent
+     * @param antiCount    the support of the antecedent
+     * @param conseEpisode the node of the consequent of the rule to extend
+     * @param depth        the size of the consequent, the occurrences of the
+     *                     rule are in the occurrences of this depth
+     * @param scratch      the buffers of the thread
+     */
+    private void growConsequentDepthFirst(int[] antiEpisode, int antiCount, int conseEpisode, int depth, RuleMiningScratch scratch) {
+        RuleOccurrenceArena occurrences = scratch.getDepthOccurrences(depth);
+        RuleOccurrenceArena.Buckets tempRuleMap = scratch.getDepthRuleMap(depth);
+        RuleAggregator aggregator = scratch.aggregator;
+        int compareKey = scratch.conseEpisodes.getEvent(conseEpisode);
+
+        tempRuleMap.clear();
+        extendRule(occurrences, 0, occurrences.size(), compareKey, tempRuleMap);
+        tempRuleMap.sortEvents();
+        for (int t = 0; t < tempRuleMap.size(); t++) {
+            int tempKey = tempRuleMap.getEvent(t);
+            if (tempRuleMap.getCount(tempKey) < antiCount * this.minConfidence) {
+                continue;
+            }
+            if (!aggregator.aggregate(tempRuleMap, tempKey, antiCount * this.minConfidence)) {
+                continue;
+            }
+            int tempConseEpisode = scratch.conseEpisodes.add(conseEpisode, tempKey);
 
+            if (aggregator.realCount >= antiCount * this.minConfidence && !scratch.conseEpisodes.equals(tempConseEpisode, antiEpisode) && aggregator.utility >= minUtility) {
+                // we save it
+                saveRule(antiEpisode, tempConseEpisode, antiCount, aggregator.realCount, aggregator.utility, scratch);
+            }
+            if (!isExpandableRule(antiEpisode, tempKey, aggregator.remainingUtility)) {
+                continue;
+            }
+            RuleOccurrenceArena nextOccurrences = scratch.getDepthOccurrences(depth + 1);
+            nextOccurrences.clear();
+            tempRuleMap.copyTo(tempKey, nextOccurrences);
+            MemoryLogger.getInstance().checkMemory();
+            growConsequentDepthFirst(antiEpisode, antiCount, tempConseEpisode, depth + 1, scratch);
+        }
+    }
 
-                    if (tempRealRuleCount >= antiCount * this.minConfidence && !antiEpisode.equals(tempConseEpisode) && tempSumRuleUtility >= minUtility) {
-                        //this.HUPOERs.add(new UPOER(antiEpisode, tempConseEpisode, null, antiCount, tempRealRuleCount, tempSumRuleUtility));
-                        saveRule(antiEpisode, tempConseEpisode, antiCount, tempRealRuleCount, tempSumRuleUtility);
+    /**
+     * Extend the occurrences of a rule with the consequent events greater than
+     * key, by a scan of the Y view or with its inverted index
+     *
+     * @param occurrences the arena holding the occurrences of the rule
+     * @param from        the first occurrence of the rule
+     * @param to          the end of the occurrences of the rule
+     * @param key         the last event of the consequent
+     * @param tempRuleMap the occurrences of the extended rules, by event
+     */
+    private void extendRule(RuleOccurrenceArena occurrences, int from, int to, int key, RuleOccurrenceArena.Buckets tempRuleMap) {
+        if (useEventIndex(key, to - from, () -> getRuleScanCost(occurrences, from, to))) {
+            extendRuleByIndex(occurrences, from, to, key, tempRuleMap);
+            return;
+        }
+        for (int o = from; o < to; o++) {
+            int occurAntiStart = occurrences.getAntiStart(o);
+            int occurAntiEnd = occurrences.getAntiEnd(o);
+            int occurConseStart = occurrences.getConseStart(o);
+            int occurConseEnd = occurrences.getConseEnd(o);
+            int occurUtility = occurrences.getUtility(o);
+            int occurAntiUtility = occurrences.getAntiUtility(o);
+            int intervalStart = Math.max(occurAntiEnd + 1, occurConseEnd - this.YSpan + 1);
+            // search [intervalStart, Y.start) to extend the rule
+            for (int i = intervalStart; i < occurConseStart; ++i) {
+                int first = this.complexSequence.getYFirstGreater(i, key);
+                for (int z = this.complexSequence.getYEnd(i) - 1; z >= first; z--) {
+                    int event = this.complexSequence.getYEvent(z);
+                    int utility = this.complexSequence.getYUtility(z);
+                    if (this.tighterUpperBound) {
+                        int remainingUtility = CalculateTigherUpperBound(occurAntiEnd, i, occurConseEnd);
+                        tempRuleMap.add(event, occurAntiStart, occurAntiEnd, i, occurConseEnd, occurUtility + utility, occurAntiUtility, remainingUtility);
+                    } else {
+                        tempRuleMap.add(event, occurAntiStart, occurAntiEnd, i, occurConseEnd, occurUtility + utility, 0, 0);
                     }
-                    ruleOccur.add(new UPOERRuleOccur(tempConseEpisode, tempRuleList, tempSumRuleUtility, tempSumRuleRemainingUtility));
-                    MemoryLogger.getInstance().checkMemory();
                 }
-                int breadthSearthStart = 0;
-                int breadthSearthEnd = ruleOccur.size();
-                // extend a rule with i-item to rules with i+1-item
-                while (breadthSearthStart < breadthSearthEnd) {
-                    tempRuleMap.clear();
-                    UPOERRuleOccur oneOccurRule = ruleOccur.get(breadthSearthStart);
-                    breadthSearthStart++;
-                    List<Integer> episode = oneOccurRule.getEpisode();
-                    Integer compareKey = episode.get(episode.size() - 1);
-                    // for any x of X, and y of Y, if AWU(x,y)< minutil, there is no need to expand the rule X->Y
-                    if (matrix) {
-                        if (!isExpandByCooMapAfter(antiEpisode, compareKey)) {
-                            continue;
-                        }
-                    }
+            }
 
-                    // REEUP strategy
-                    if (tighterUpperBound) {
-                        if (oneOccurRule.getRemainingUtility() < this.minUtility) {
-                            continue;
-                        }
-                    }
-                    this.CandidateNum++;
-
-                    List<RuleIntervalUtility> oneOccurRuleIntervalUtilityList = oneOccurRule.getIntervals();
-                    for (RuleIntervalUtility oneOccurRuleIntervalUtility : oneOccurRuleIntervalUtilityList) {
-                        int intervalStart = Math.max(oneOccurRuleIntervalUtility.antiEnd + 1, oneOccurRuleIntervalUtility.conseEnd - this.YSpan + 1);
-                        // search [intervalStart, Y.start] to extend the rule
-                        for (int i = intervalStart; i < oneOccurRuleIntervalUtility.conseStart; ++i) {
-                            if (this.complexSequence.getEventSetAndItsUtilityByTID(i).isEmpty()) {
-                                continue;
-                            }
-                            List<ComplexSequence.EventUtility> pairs = this.complexSequence.getEventSetAndItsUtilityByTID(i);
-                            int PairSize = pairs.size();
-                            for (int z = PairSize - 1; z >= 0; z--) {
-                                ComplexSequence.EventUtility pair = pairs.get(z);
-                                int event = pair.event;
-                                int utility = pair.utility;
-                                // we expand the rule if the event > key
-                                if (event > compareKey) {
-                                    RuleIntervalUtility ruleIntervalUtility;
-                                    if (this.tighterUpperBound) {
-                                        int remainingUtility = CalculateTigherUpperBound(oneOccurRuleIntervalUtility.antiEnd, i, oneOccurRuleIntervalUtility.conseEnd);
-                                        ruleIntervalUtility = new RuleIntervalUtility(oneOccurRuleIntervalUtility.antiStart, oneOccurRuleIntervalUtility.antiEnd, i, oneOccurRuleIntervalUtility.conseEnd, oneOccurRuleIntervalUtility.utility + utility, oneOccurRuleIntervalUtility.antiUtility, remainingUtility);
-                                    } else {
-                                        ruleIntervalUtility = new RuleIntervalUtility(oneOccurRuleIntervalUtility.antiStart, oneOccurRuleIntervalUtility.antiEnd, i, oneOccurRuleIntervalUtility.conseEnd, oneOccurRuleIntervalUtility.utility + utility);
-                                    }
-                                    if (tempRuleMap.containsKey(event)) {
-                                        tempRuleMap.get(event).add(ruleIntervalUtility);
-                                    } else {
-                                        ArrayList<RuleIntervalUtility> appearTime = new ArrayList<>();
-                                        appearTime.add(ruleIntervalUtility);
-                                        tempRuleMap.put(event, appearTime);
-                                    }
-                                } else {
-                                    break;
-                                }
-                            }
-                        }
-                        // search [Y.start, Y.end] to extend the rule
-                        for (int i = oneOccurRuleIntervalUtility.conseStart; i <= oneOccurRuleIntervalUtility.conseEnd; ++i) {
-                            if (this.complexSequence.getEventSetAndItsUtilityByTID(i).isEmpty()) {
-                                continue;
-                            }
-                            List<ComplexSequence.EventUtility> pairs = this.complexSequence.getEventSetAndItsUtilityByTID(i);
-                            int PairSize = pairs.size();
-                            for (int z = PairSize - 1; z >= 0; z--) {
-                                ComplexSequence.EventUtility pair = pairs.get(z);
-                                int event = pair.event;
-                                int utility = pair.utility;
-                                if (event > compareKey) {
-                                    RuleIntervalUtility ruleIntervalUtility;
-                                    if (this.tighterUpperBound) {
-                                        int remainingUtility = CalculateTigherUpperBound(oneOccurRuleIntervalUtility.antiEnd, oneOccurRuleIntervalUtility.conseStart, oneOccurRuleIntervalUtility.conseEnd);
-                                        ruleIntervalUtility = new RuleIntervalUtility(oneOccurRuleIntervalUtility.antiStart, oneOccurRuleIntervalUtility.antiEnd, oneOccurRuleIntervalUtility.conseStart, oneOccurRuleIntervalUtility.conseEnd, oneOccurRuleIntervalUtility.utility + utility, oneOccurRuleIntervalUtility.antiUtility, remainingUtility);
-                                    } else {
-                                        ruleIntervalUtility = new RuleIntervalUtility(oneOccurRuleIntervalUtility.antiStart, oneOccurRuleIntervalUtility.antiEnd, oneOccurRuleIntervalUtility.conseStart, oneOccurRuleIntervalUtility.conseEnd, oneOccurRuleIntervalUtility.utility + utility);
-                                    }
-                                    if (tempRuleMap.containsKey(event)) {
-                                        tempRuleMap.get(event).add(ruleIntervalUtility);
-                                    } else {
-                                        ArrayList<RuleIntervalUtility> appearTime = new ArrayList<>();
-                                        appearTime.add(ruleIntervalUtility);
-                                        tempRuleMap.put(event, appearTime);
-                                    }
-                                } else {
-                                    break;
-                                }
-                            }
-                        }
-                        // search [Y.end + 1, intervalEnd) to extend the rule
-                        int intervalEnd = Math.min(oneOccurRuleIntervalUtility.antiEnd + this.XYSpan + this.YSpan - 2, oneOccurRuleIntervalUtility.conseStart + this.YSpan - 1);
-                        for (int i = oneOccurRuleIntervalUtility.conseEnd + 1; i <= intervalEnd; ++i) {
-                            if (this.complexSequence.getEventSetAndItsUtilityByTID(i).isEmpty()) {
-                                continue;
-                            }
-                            List<ComplexSequence.EventUtility> pairs = this.complexSequence.getEventSetAndItsUtilityByTID(i);
-                            int PairSize = pairs.size();
-                            for (int z = PairSize - 1; z >= 0; z--) {
-                                ComplexSequence.EventUtility pair = pairs.get(z);
-                                int event = pair.event;
-                                int utility = pair.utility;
-                                if (event > compareKey) {
-                                    RuleIntervalUtility ruleIntervalUtility;
-                                    if (this.tighterUpperBound) {
-                                        int remainingUtility = CalculateTigherUpperBound(oneOccurRuleIntervalUtility.antiEnd, oneOccurRuleIntervalUtility.conseStart, i);
-                                        ruleIntervalUtility = new RuleIntervalUtility(oneOccurRuleIntervalUtility.antiStart, oneOccurRuleIntervalUtility.antiEnd, oneOccurRuleIntervalUtility.conseStart, i, oneOccurRuleIntervalUtility.utility + utility, oneOccurRuleIntervalUtility.antiUtility, remainingUtility);
-                                    } else {
-                                        ruleIntervalUtility = new RuleIntervalUtility(oneOccurRuleIntervalUtility.antiStart, oneOccurRuleIntervalUtility.antiEnd, oneOccurRuleIntervalUtility.conseStart, i, oneOccurRuleIntervalUtility.utility + utility);
-                                    }
-                                    if (tempRuleMap.containsKey(event)) {
-                                        tempRuleMap.get(event).add(ruleIntervalUtility);
-                                    } else {
-                                        ArrayList<RuleIntervalUtility> appearTime = new ArrayList<>();
-                                        appearTime.add(ruleIntervalUtility);
-                                        tempRuleMap.put(event, appearTime);
-                                    }
-                                } else {
-                                    break;
-                                }
-                            }
-                        }
+            // search [Y.Start, Y.End] to extend the rule
+            for (int i = occurConseStart; i <= occurConseEnd; ++i) {
+                int first = this.complexSequence.getYFirstGreater(i, key);
+                for (int z = this.complexSequence.getYEnd(i) - 1; z >= first; z--) {
+                    int event = this.complexSequence.getYEvent(z);
+                    int utility = this.complexSequence.getYUtility(z);
+                    if (this.tighterUpperBound) {
+                        int remainingUtility = CalculateTigherUpperBound(occurAntiEnd, occurConseStart, occurConseEnd);
+                        tempRuleMap.add(event, occurAntiStart, occurAntiEnd, occurConseStart, occurConseEnd, occurUtility + utility, occurAntiUtility, remainingUtility);
+                    } else {
+                        tempRuleMap.add(event, occurAntiStart, occurAntiEnd, occurConseStart, occurConseEnd, occurUtility + utility, 0, 0);
                     }
-                    oneOccurRule.clear();
-                    // scan tempRuleMap and put vaild rule in ruleAppear, and possible rule in
-                    // ruleOccur
-                    for (Map.Entry<Integer, List<RuleIntervalUtility>> tempRecodeMapItem : tempRuleMap.entrySet()) {
-                        Integer tempKey = tempRecodeMapItem.getKey();
-                        List<RuleIntervalUtility> tempRuleList = tempRecodeMapItem.getValue();
-                        if (tempRuleList.size() < antiCount * this.minConfidence) {
-                            continue;
-                        }
-                        int tempPossibleRuleStart = -1;
-                        int tempPossibleRuleCount = 0;
-                        int tempRealRuleStart = -1;
-                        int tempRealRuleCount = 0;
-                        int tempRealRuleUtility = 0;
-                        int tempSumRuleUtility = 0;
-                        int tempRealRuleRemainingUtility = 0;
-                        int tempSumRuleRemainingUtility = 0;
-                        for (RuleIntervalUtility occur : tempRuleList) {
-                            if (occur.antiStart > tempRealRuleStart && occur.conseStart - occur.antiEnd < this.XYSpan) {
-                                tempRealRuleCount++;
-                                tempRealRuleStart = occur.conseEnd;
-                                tempRealRuleUtility = occur.utility;
-                                tempSumRuleUtility += occur.utility;
-                            }
-                            if (occur.antiStart <= tempRealRuleStart && occur.conseStart - occur.antiEnd < this.XYSpan) {
-                                if (occur.utility > tempRealRuleUtility) {
-                                    // for redundant occurrences of a rule, we take the maximum utility as their utility
-                                    tempSumRuleUtility -= tempRealRuleUtility;
-                                    tempSumRuleUtility += occur.utility;
-                                    tempRealRuleUtility = occur.utility;
-                                }
-                            }
-
-                            if (tighterUpperBound) {
-                                if (occur.antiStart > tempPossibleRuleStart) {
-                                    tempRealRuleRemainingUtility = occur.antiUtility + occur.remainingUtility;
-                                    tempSumRuleRemainingUtility += occur.antiUtility + occur.remainingUtility;
-                                } else {
-                                    if (occur.antiUtility + occur.remainingUtility > tempRealRuleRemainingUtility) {
-                                        tempSumRuleRemainingUtility -= tempRealRuleRemainingUtility;
-                                        tempSumRuleRemainingUtility += occur.antiUtility + occur.remainingUtility;
-                                        tempRealRuleRemainingUtility = occur.antiUtility + occur.remainingUtility;
-                                    }
-                                }
-                            }
-
-                            if (occur.antiStart > tempPossibleRuleStart) {
-                                tempPossibleRuleCount++;
-                                tempPossibleRuleStart = occur.conseEnd;
-                            }
-                        }
-                        if (tempPossibleRuleCount < antiCount * this.minConfidence) {
-                            continue;
-                        }
-                        List<Integer> tempConseEpisode = new ArrayList<Integer>(episode);
-                        tempConseEpisode.add(tempKey);
-
-                        if (tempRealRuleCount >= antiCount * this.minConfidence && !antiEpisode.equals(tempConseEpisode) && tempSumRuleUtility >= minUtility) {
-                            // we save it
-                            saveRule(antiEpisode, tempConseEpisode, antiCount, tempRealRuleCount, tempSumRuleUtility);
-                        }
-                        ruleOccur.add(new UPOERRuleOccur(tempConseEpisode, tempRuleList, tempSumRuleUtility, tempSumRuleRemainingUtility));
+                }
+            }
+            int intervalEnd = Math.min(occurAntiEnd + this.XYSpan + this.YSpan - 2, occurConseStart + this.YSpan - 1);
+            // search [Y.end + 1, intervalEnd) to extend the rule
+            for (int i = occurConseEnd + 1; i <= intervalEnd; ++i) {
+                int first = this.complexSequence.getYFirstGreater(i, key);
+                for (int z = this.complexSequence.getYEnd(i) - 1; z >= first; z--) {
+                    int event = this.complexSequence.getYEvent(z);
+                    int utility = this.complexSequence.getYUtility(z);
+                    if (this.tighterUpperBound) {
+                        int remainingUtility = CalculateTigherUpperBound(occurAntiEnd, occurConseStart, i);
+                        tempRuleMap.add(event, occurAntiStart, occurAntiEnd, occurConseStart, i, occurUtility + utility, occurAntiUtility, remainingUtility);
+                    } else {
+                        tempRuleMap.add(event, occurAntiStart, occurAntiEnd, occurConseStart, i, occurUtility + utility, 0, 0);
                     }
-                    MemoryLogger.getInstance().checkMemory();
-                    breadthSearthEnd = ruleOccur.size();
                 }
             }
         }
     }
 
-    public void saveRule(List<Integer> antiEpisode, List<Integer> conseEpisode, int antiCount, int realRuleCount, int ruleUtility) {
-        this.HUPOERCount++;
-        try {
-            MemoryLogger.getInstance().checkMemory();
+    /**
+     * Save a rule: count it and append it to the rules of the scratch
+     */
+    private void saveRule(int[] antiEpisode, int conseEpisode, int antiCount, int realRuleCount, int ruleUtility, RuleMiningScratch scratch) {
+        this.HUPOERCount.increment();
+        MemoryLogger.getInstance().checkMemory();
 
-            StringBuilder buffer = new StringBuilder();
+        StringBuilder buffer = scratch.rules;
+        appendEpisode(buffer, antiEpisode);
+        buffer.append("==> ");
+        // the consequent is materialized only here
+        appendEpisode(buffer, scratch.conseEpisodes.toArray(conseEpisode));
+        buffer.append("#SUP: ");
+        buffer.append(realRuleCount);
+        buffer.append(" #CONF: ");
+        buffer.append(scratch.formatter.format(realRuleCount / (double) antiCount));
+        buffer.append(" #Util: ");
+        buffer.append(ruleUtility).append(System.lineSeparator());
+    }
 
+    public boolean isExpandByCooMapAfter(int[] antiEpisode, int conseEvent) {
+        boolean expand = isExpandByCooMatrix(this.cooMatrix, antiEpisode, conseEvent);
+        if (expand && this.exactCooMatrix != null && !isExpandByCooMatrix(this.exactCooMatrix, antiEpisode, conseEvent)) {
+            this.sketchLostPruneCount.increment();
+        }
+        return expand;
+    }
 
-            for (Integer anti : antiEpisode) {
-                buffer.append(anti);
-                buffer.append(' ');
+    private boolean isExpandByCooMatrix(CoocUtilityMatrix matrix, int[] antiEpisode, int conseEvent) {
+        for (int antiEvent : antiEpisode) {
+            long utility = matrix.get(antiEvent, conseEvent);
+            if (utility != CoocUtilityMatrix.ABSENT && utility < this.minUtility) {
+                return false;
             }
-            buffer.append("==> ");
-            for (Integer conse : conseEpisode) {
-                buffer.append(conse);
-                buffer.append(' ');
-            }
-            buffer.append("#SUP: ");
-            buffer.append(realRuleCount);
-            buffer.append(" #CONF: ");
-            buffer.append(formatter.format(realRuleCount / (double) antiCount));
-            buffer.append(" #Util: ");
-            buffer.append(ruleUtility + System.lineSeparator());
+        }
+        return true;
+    }
 
-            writer.write(buffer.toString());
-            //bw.close();
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        } catch (IOException e) {
-            e.printStackTrace();
+    /**
+     * Append the events of an episode given as a list of codes
+     */
+    private void appendEpisode(StringBuilder buffer, List<Integer> episode) {
+        int[] codes = new int[episode.size()];
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = episode.get(i);
         }
+        appendEpisode(buffer, codes);
     }
 
-    public boolean isExpandByCooMapAfter(List<Integer> antiEpisode, Integer conseEvent) {
-        for (Integer antiEvent : antiEpisode) {
-            if (cooMapAfter.get(antiEvent) != null) {
-                if (cooMapAfter.get(antiEvent).get(conseEvent) != null) {
-                    if (cooMapAfter.get(antiEvent).get(conseEvent) < this.minUtility) {
-                        return false;
-                    }
-                }
-            }
+    /**
+     * Append the events of an episode to a buffer, by ascending identifier
+     *
+     * @param buffer  the buffer
+     * @param episode an episode of event codes
+     */
+    private void appendEpisode(StringBuilder buffer, int[] episode) {
+        int[] eventIds = new int[episode.length];
+        for (int i = 0; i < eventIds.length; i++) {
+            eventIds[i] = this.complexSequence.getEventId(episode[i]);
+        }
+        if (this.eventOrder != EventOrder.RAW) {
+            // with the RAW order, the codes are already in identifier order
+            Arrays.sort(eventIds);
+        }
+        for (int eventId : eventIds) {
+            buffer.append(eventId);
+            buffer.append(' ');
         }
-        return true;
     }
 
     public void save(List<UPOER> HUPOERs) {
@@ -1031,15 +2163,9 @@ public class AlgoUPER {
             StringBuilder buffer = new StringBuilder();
             for (UPOER HUPOER : HUPOERs) {
 
-                for (Integer anti : HUPOER.getAntiEpisode()) {
-                    buffer.append(anti);
-                    buffer.append(' ');
-                }
+                appendEpisode(buffer, HUPOER.getAntiEpisode());
                 buffer.append("==> ");
-                for (Integer conse : HUPOER.getConseEpisode()) {
-                    buffer.append(conse);
-                    buffer.append(' ');
-                }
+                appendEpisode(buffer, HUPOER.getConseEpisode());
                 buffer.append("#SUP: ");
                 buffer.append(HUPOER.getAntiCount());
                 buffer.append(" #CONF: ");
@@ -1061,8 +2187,8 @@ public class AlgoUPER {
         // calculate the search interval
         int searchStart = Math.max(antiEnd + 1, conseEnd - this.YSpan + 1);
         int searchEnd = Math.min(antiEnd + this.XYSpan + this.YSpan - 2, conseStart + this.YSpan - 1);
-        // then we compute the sum of utility
-        return complexSequence.getTotalUtilityOfDuration(searchStart, searchEnd);
+        // then we compute the sum of utility of the Y view, where the consequent is extended
+        return complexSequence.getYTotalUtilityOfDuration(searchStart, searchEnd);
     }
 
     /**
@@ -1072,8 +2198,23 @@ public class AlgoUPER {
         System.out.println("=============  HUPOERM - STATS =============");
         //HUPOERCount = this.HUPOERs.size();
         System.out.println(" Minimum utility : " + this.minUtility);
-        System.out.println(" Candidate count : " + this.CandidateNum);
-        System.out.println(" Rule count : " + this.HUPOERCount);
+        System.out.println(" Candidate count : " + this.CandidateNum.sum());
+        System.out.println(" Rule count : " + this.HUPOERCount.sum());
+        if (this.cooMatrix instanceof CoocUtilityMatrix.Sketch) {
+            CoocUtilityMatrix.Sketch sketch = (CoocUtilityMatrix.Sketch) this.cooMatrix;
+            System.out.println(" Co-occurrence sketch : " + sketch.getDepth() + " x " + sketch.getWidth()
+                    + " counters (" + sketch.getMemorySize() + " bytes), error bound " + formatter.format(sketch.getErrorBound()));
+            if (this.exactCooMatrix != null) {
+                System.out.println(" Prunes lost by the sketch : " + this.sketchLostPruneCount.sum());
+            }
+        }
+        if (this.antecedentUtilityPruning) {
+            System.out.println(" X candidates pruned by utility : " + this.antecedentUtilityPruneCount.sum());
+        }
+        if (!this.windowCaches.isEmpty()) {
+            System.out.println(" Consequent window cache : " + getWindowCacheHitCount() + " hits, "
+                    + getWindowCacheMissCount() + " misses");
+        }
         System.out.println(" Maximum memory usage : " + formatter.format(this.maxMemory) + " mb");
         System.out.println(" Total time : " + this.deltaTimestamp + " ms");
         System.out.println("===================================================");
@@ -1140,127 +2281,77 @@ public class AlgoUPER {
 
 
     /**
-     * implements a class contains moList and utility list of single candidates
-     * (items)
+     * implements a class contains an episode and its occurrences
      */
     public class EpisodeMoListUtilityList {
-        // Episode
-        List<Integer> EpisodeList;
-        // Start position of minimal occurrence
-        List<Integer> moStartList;
-        // End position of minimal occurrence
-        List<Integer> moEndList;
+        // the node of the episode in the prefix tree of the X episodes
+        int episode;
 
-        // utility list
-        List<Integer> utilityList;
+        // the occurrences, sorted by end then by start, one per interval with
+        // the greatest utility
+        OccurrenceList occurrences;
 
-        /**
-         * int[]: 0: start, 1: end, 2: utility
-         */
-        List<PositionsAndUtility> PositionAndUtilityList;
+        // the number of non-overlapping occurrences, the support of the episode as an antecedent
+        int antiCount;
 
-        /**
-         * Constructor
-         */
-        public EpisodeMoListUtilityList() {
-            this.EpisodeList = new ArrayList<>();
-            this.moStartList = new ArrayList<>();
-            this.moEndList = new ArrayList<>();
-            this.utilityList = new ArrayList<>();
-        }
+        // the greatest end of the occurrences
+        int greatestEnd;
 
         /**
          * Constructor
          *
-         * @param EpisodeList Episode
-         * @param moStartList a start position list of moList
-         * @param moEndList   an end position list of moList
-         * @param utilityList a utility list
-         */
-        public EpisodeMoListUtilityList(List<Integer> EpisodeList, List<Integer> moStartList, List<Integer> moEndList, List<Integer> utilityList) {
-            this.EpisodeList = EpisodeList;
-            this.moStartList = moStartList;
-            this.moEndList = moEndList;
-            this.utilityList = utilityList;
-        }
-
-        /**
-         * @param EpisodeList            Episode
-         * @param PositionAndUtilityList int[]: 0: start, 1: end, 2: utility
-         */
-        public EpisodeMoListUtilityList(List<Integer> EpisodeList, List<PositionsAndUtility> PositionAndUtilityList) {
-            this.EpisodeList = EpisodeList;
-            this.PositionAndUtilityList = PositionAndUtilityList;
-        }
-
-        /**
-         * Add a minimal occurrence and its utility
-         *
-         * @param moStart start position of a minimal occurrence
-         * @param moEnd   end position of a minimal occurrence
-         * @param utility its utility
-         */
-        public void add(int moStart, int moEnd, int utility) {
-            this.moStartList.add(moStart);
-            this.moEndList.add(moEnd);
-            this.utilityList.add(utility);
-        }
-
-        /**
-         * Get the episode list
-         *
-         * @return the episode list
+         * @param episode     the node of the episode in the X prefix tree
+         * @param occurrences the occurrences of the episode, which are final
          */
-        public List<Integer> getEpisodeList() {
-            return EpisodeList;
+        public EpisodeMoListUtilityList(int episode, OccurrenceList occurrences) {
+            this.episode = episode;
+            this.occurrences = occurrences;
+
+            // an occurrence is counted if it starts after the end of the last one counted
+            int lastEnd = -1;
+            for (int o = 0; o < occurrences.size(); o++) {
+                if (occurrences.getStart(o) > lastEnd) {
+                    this.antiCount++;
+                    lastEnd = occurrences.getEnd(o);
+                }
+            }
+            this.greatestEnd = occurrences.size() == 0 ? -1 : occurrences.getEnd(occurrences.size() - 1);
         }
 
         /**
-         * Get the start position list of minimum occurrence
+         * Get the episode
          *
-         * @return the start position list of minimum occurrence
+         * @return the node of the episode in the X prefix tree
          */
-        public List<Integer> getMoStartList() {
-            return moStartList;
+        public int getEpisode() {
+            return episode;
         }
 
         /**
-         * Get the end position list of minimum occurrence
+         * Get the occurrences
          *
-         * @return the end position list of minimum occurrence
+         * @return the occurrences
          */
-        public List<Integer> getMoEndList() {
-            return moEndList;
+        public OccurrenceList getOccurrences() {
+            return occurrences;
         }
 
         /**
-         * Get the utility list
+         * Get the number of non-overlapping occurrences
          *
-         * @return the utility list
+         * @return the support of the episode as an antecedent
          */
-        public List<Integer> getUtilityList() {
-            return utilityList;
+        public int getAntiCount() {
+            return antiCount;
         }
 
         /**
-         * Get the position and utility List
+         * Get the greatest end of the occurrences
          *
-         * @return the position and utility List
+         * @return a timepoint, or -1 if there is no occurrence
          */
-        public List<PositionsAndUtility> getPositionAndUtilityList() {
-            return PositionAndUtilityList;
-        }
-    }
-
-    public class PositionsAndUtility {
-        int start;
-        int end;
-        int utility;
-
-        public PositionsAndUtility(int start, int end, int utility) {
-            this.start = start;
-            this.end = end;
-            this.utility = utility;
+        public int getGreatestEnd() {
+            return greatestEnd;
         }
     }
 
@@ -1,12 +1,70 @@
 import java.util.*;
-
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * A complex sequence stored in compressed sparse row (CSR) layout. The events
+ * of the timepoint TID are events[offsets[TID] .. offsets[TID+1]) and their
+ * utilities are at the same positions in utilities. Events are replaced by
+ * dense codes (their rank among the distinct events of the sequence), so that
+ * code order is the same as event order and eventIds gives back the event of
+ * a code. After pruning, remapEvents() may give the remaining events new
+ * dense codes in another order. The events of each timepoint are kept sorted
+ * by code.
+ * <p>
+ * The sequence is built by adding the events in TID order, then closed by
+ * setLargestTID() and encodeEvents().
+ * <p>
+ * The consequents of the rules are searched in the Y view, which reads the
+ * arrays and the inverted index of the X view.
+ */
 public class ComplexSequence {
     /**
-     * a map with key: TID(timepoint) value: (events, eventsUtility, totalUtility)
+     * the events of the X view, offsets[TID] is the position of the first event
+     * of TID
+     */
+    private int[] offsets;
+
+    private int[] events;
+
+    private int[] utilities;
+
+    /**
+     * the total utility of each TID in the X view
+     */
+    private int[] totalUtility;
+
+    /**
+     * the prefix sums of the total utility of the X view: prefixUtility[TID] is
+     * the total utility of the timepoints 1..TID
+     */
+    private long[] prefixUtility;
+
+    /**
+     * the inverted index of the X view
+     */
+    private EventIndex index;
+
+    /**
+     * the smallest range of TIDs given to one task when a pass over the
+     * sequence runs in parallel
      */
-    public Map<Integer, EventsEventsUtilityTotalUtility> mapItemEET;
+    static final int MIN_TID_RANGE = 4096;
 
-    public Map<Integer, EventsEventsUtilityTotalUtility> mapYItemEET;
+    /**
+     * the timepoints with at most this number of events are sorted by insertion
+     */
+    private static final int INSERTION_SORT_SIZE = 32;
+
+    /**
+     * the number of events added to the sequence
+     */
+    private int eventCount;
+
+    /**
+     * the event of each code, in ascending order until remapEvents() is called
+     */
+    private int[] eventIds;
 
     /**
      * the largest time point in the sequence
@@ -17,7 +75,10 @@ public class ComplexSequence {
      * constructor
      */
     public ComplexSequence() {
-        this.mapItemEET = new HashMap<>();
+        this.offsets = new int[1024];
+        this.events = new int[4096];
+        this.utilities = new int[4096];
+        this.totalUtility = new int[1024];
         this.largestTID = 0;
     }
 
@@ -28,52 +89,431 @@ public class ComplexSequence {
      * @param totalUtility the total utility
      */
     public void setTotalUtility(int tid, int totalUtility) {
-        this.mapItemEET.get(tid).setTotalUtility(totalUtility);
+        this.totalUtility[tid] = totalUtility;
     }
 
     /**
-     * set the largest TID
+     * set the largest TID, no event can be added after it
      *
      * @param tid the transaction id
      */
     public void setLargestTID(int tid) {
+        growTimepoints(tid);
         this.largestTID = tid;
+        this.offsets = Arrays.copyOf(this.offsets, tid + 2);
+        this.offsets[tid + 1] = this.eventCount;
+        this.totalUtility = Arrays.copyOf(this.totalUtility, tid + 1);
+        this.events = Arrays.copyOf(this.events, this.eventCount);
+        this.utilities = Arrays.copyOf(this.utilities, this.eventCount);
+        buildPrefixUtilities();
     }
 
     /**
-     * Add a event with its utility to the sequence
+     * Add a event with its utility to the sequence, the events must be added in
+     * TID order
      *
      * @param tid     a transaction id
      * @param event   an event
      * @param utility the utility
      */
     public void add(int tid, int event, int utility) {
-        EventsEventsUtilityTotalUtility eet = this.mapItemEET.get(tid);
-        if (eet == null) {
-            eet = new EventsEventsUtilityTotalUtility();
-            this.mapItemEET.put(tid, eet);
+        growTimepoints(tid);
+        if (this.eventCount == this.events.length) {
+            this.events = Arrays.copyOf(this.events, this.eventCount * 2);
+            this.utilities = Arrays.copyOf(this.utilities, this.eventCount * 2);
+        }
+        this.events[this.eventCount] = event;
+        this.utilities[this.eventCount] = utility;
+        this.eventCount++;
+    }
+
+    /**
+     * Make room for the timepoints up to TID and start the timepoint TID
+     *
+     * @param tid the transaction id
+     */
+    private void growTimepoints(int tid) {
+        if (tid + 2 > this.offsets.length) {
+            int capacity = Math.max(tid + 2, this.offsets.length * 2);
+            this.offsets = Arrays.copyOf(this.offsets, capacity);
+            this.totalUtility = Arrays.copyOf(this.totalUtility, capacity);
         }
-        eet.add(event, utility);
+        // the timepoints after the last added one
+        while (this.largestTID < tid) {
+            this.largestTID++;
+            this.offsets[this.largestTID] = this.eventCount;
+        }
+    }
+
+    /**
+     * Replace each event of the sequence by its code, and sort the events of
+     * each timepoint by code. This must be called once the sequence is
+     * complete.
+     */
+    public void encodeEvents() {
+        int[] sortedEvents = Arrays.copyOf(this.events, this.eventCount);
+        Arrays.sort(sortedEvents);
+        int distinctCount = 0;
+        for (int i = 0; i < sortedEvents.length; i++) {
+            if (i == 0 || sortedEvents[i] != sortedEvents[i - 1]) {
+                sortedEvents[distinctCount++] = sortedEvents[i];
+            }
+        }
+        this.eventIds = Arrays.copyOf(sortedEvents, distinctCount);
+        for (int pos = 0; pos < this.eventCount; pos++) {
+            this.events[pos] = getEventCode(this.events[pos]);
+        }
+        sortTimepoints(this.offsets, this.events, this.utilities);
+    }
+
+    /**
+     * Get the code of an event, before remapEvents() is called
+     *
+     * @param event an event of the sequence
+     * @return its code
+     */
+    public int getEventCode(int event) {
+        return Arrays.binarySearch(this.eventIds, event);
+    }
+
+    /**
+     * Get the number of distinct events, codes are in [0, getAlphabetSize())
+     *
+     * @return the number of distinct events
+     */
+    public int getAlphabetSize() {
+        return this.eventIds.length;
+    }
+
+    /**
+     * Get the largest TID of the sequence
+     *
+     * @return the largest TID
+     */
+    public int getLargestTID() {
+        return this.largestTID;
+    }
+
+    /**
+     * Get the event of a code
+     *
+     * @param code a code
+     * @return the event
+     */
+    public int getEventId(int code) {
+        return this.eventIds[code];
+    }
+
+    /**
+     * Get the position of the first event of TID in the X view
+     *
+     * @param tid the transaction identifier
+     * @return a position, equal to getEnd(tid) if TID has no event
+     */
+    public int getStart(int tid) {
+        return tid < 1 || tid > this.largestTID ? 0 : this.offsets[tid];
+    }
+
+    /**
+     * Get the position after the last event of TID in the X view
+     *
+     * @param tid the transaction identifier
+     * @return a position
+     */
+    public int getEnd(int tid) {
+        return tid < 1 || tid > this.largestTID ? 0 : this.offsets[tid + 1];
+    }
+
+    /**
+     * Get the event at a position of the X view
+     *
+     * @param pos a position
+     * @return the event code
+     */
+    public int getEvent(int pos) {
+        return this.events[pos];
+    }
+
+    /**
+     * Get the utility of the event at a position of the X view
+     *
+     * @param pos a position
+     * @return the utility
+     */
+    public int getUtility(int pos) {
+        return this.utilities[pos];
+    }
+
+    /**
+     * Get the position of the first event of TID greater than a code in the X
+     * view, the events of a timepoint being sorted by code
+     *
+     * @param tid the transaction identifier
+     * @param key an event code
+     * @return a position, equal to getEnd(tid) if no event of TID is greater
+     */
+    public int getFirstGreater(int tid, int key) {
+        return firstGreater(this.events, getStart(tid), getEnd(tid), key);
     }
 
     /**
-     * Get an event set and its utility for a given TID
+     * Get the position of the first event of TID in the Y view
      *
      * @param tid the transaction identifier
-     * @return the event set
+     * @return a position, equal to getYEnd(tid) if TID has no event
      */
-    public List<EventUtility> getEventSetAndItsUtilityByTID(int tid) {
-        return this.mapItemEET.containsKey(tid) ? this.mapItemEET.get(tid).getPairs() : new ArrayList<>();
+    public int getYStart(int tid) {
+        return tid < 1 || tid > this.largestTID ? 0 : this.offsets[tid];
     }
 
     /**
-     * Get an event set and its utility for a given TID
+     * Get the position after the last event of TID in the Y view
      *
      * @param tid the transaction identifier
-     * @return the event set
+     * @return a position
+     */
+    public int getYEnd(int tid) {
+        return tid < 1 || tid > this.largestTID ? 0 : this.offsets[tid + 1];
+    }
+
+    /**
+     * Get the event at a position of the Y view
+     *
+     * @param pos a position
+     * @return the event code
+     */
+    public int getYEvent(int pos) {
+        return this.events[pos];
+    }
+
+    /**
+     * Get the utility of the event at a position of the Y view
+     *
+     * @param pos a position
+     * @return the utility
+     */
+    public int getYUtility(int pos) {
+        return this.utilities[pos];
+    }
+
+    /**
+     * Get the position of the first event of TID greater than a code in the Y
+     * view, the events of a timepoint being sorted by code
+     *
+     * @param tid the transaction identifier
+     * @param key an event code
+     * @return a position, equal to getYEnd(tid) if no event of TID is greater
+     */
+    public int getYFirstGreater(int tid, int key) {
+        return firstGreater(this.events, getYStart(tid), getYEnd(tid), key);
+    }
+
+    /**
+     * Binary search of the first event greater than a code in sorted events
+     *
+     * @param events the events
+     * @param from   the first position
+     * @param to     the position after the last one
+     * @param key    an event code
+     * @return a position in [from, to]
+     */
+    private static int firstGreater(int[] events, int from, int to, int key) {
+        while (from < to) {
+            int middle = (from + to) >>> 1;
+            if (events[middle] <= key) {
+                from = middle + 1;
+            } else {
+                to = middle;
+            }
+        }
+        return from;
+    }
+
+    /**
+     * Build the inverted index of the events. This must be called once the
+     * events have their final codes.
+     */
+    public void buildEventIndex() {
+        this.index = new EventIndex(this.eventIds.length, this.largestTID, this.offsets, this.events, this.utilities);
+    }
+
+    /**
+     * Get the first position of an event in the inverted index of the X view
+     *
+     * @param event an event code
+     * @return an index position
+     */
+    public int getIndexStart(int event) {
+        return this.index.offsets[event];
+    }
+
+    /**
+     * Get the position after the last one of an event in the inverted index of
+     * the X view
+     *
+     * @param event an event code
+     * @return an index position
+     */
+    public int getIndexEnd(int event) {
+        return this.index.offsets[event + 1];
+    }
+
+    /**
+     * Get the TID at a position of the inverted index of the X view
+     *
+     * @param indexPos an index position
+     * @return the TID
+     */
+    public int getIndexTid(int indexPos) {
+        return this.index.tids[indexPos];
+    }
+
+    /**
+     * Get the utility at a position of the inverted index of the X view
+     *
+     * @param indexPos an index position
+     * @return the utility
+     */
+    public int getIndexUtility(int indexPos) {
+        return this.index.utilities[indexPos];
+    }
+
+    /**
+     * Find, by galloping from a position of the inverted index of the X view,
+     * the first position of the same event whose TID is at least tid
+     *
+     * @param from the position to start from
+     * @param to   the position after the last one of the event
+     * @param tid  a TID
+     * @return an index position in [from, to]
+     */
+    public int gallopIndex(int from, int to, int tid) {
+        return gallop(this.index.tids, from, to, tid);
+    }
+
+    /**
+     * Get the first position of an event in the inverted index of the Y view
+     *
+     * @param event an event code
+     * @return an index position
+     */
+    public int getYIndexStart(int event) {
+        return this.index.offsets[event];
+    }
+
+    /**
+     * Get the position after the last one of an event in the inverted index of
+     * the Y view
+     *
+     * @param event an event code
+     * @return an index position
+     */
+    public int getYIndexEnd(int event) {
+        return this.index.offsets[event + 1];
+    }
+
+    /**
+     * Get the TID at a position of the inverted index of the Y view
+     *
+     * @param indexPos an index position
+     * @return the TID
      */
-    public List<EventUtility> getYEventSetAndItsUtilityByTID(int tid) {
-        return this.mapYItemEET.containsKey(tid) ? this.mapYItemEET.get(tid).getPairs() : new ArrayList<>();
+    public int getYIndexTid(int indexPos) {
+        return this.index.tids[indexPos];
+    }
+
+    /**
+     * Get the utility at a position of the inverted index of the Y view
+     *
+     * @param indexPos an index position
+     * @return the utility
+     */
+    public int getYIndexUtility(int indexPos) {
+        return this.index.utilities[indexPos];
+    }
+
+    /**
+     * Find, by galloping from a position of the inverted index of the Y view,
+     * the first position of the same event whose TID is at least tid
+     *
+     * @param from the position to start from
+     * @param to   the position after the last one of the event
+     * @param tid  a TID
+     * @return an index position in [from, to]
+     */
+    public int gallopYIndex(int from, int to, int tid) {
+        return gallop(this.index.tids, from, to, tid);
+    }
+
+    /**
+     * Exponential then binary search of the first TID at least tid in sorted
+     * TIDs
+     *
+     * @param tids the TIDs
+     * @param from the first position
+     * @param to   the position after the last one
+     * @param tid  a TID
+     * @return a position in [from, to]
+     */
+    private static int gallop(int[] tids, int from, int to, int tid) {
+        int step = 1;
+        int bound = from;
+        while (bound < to && tids[bound] < tid) {
+            from = bound + 1;
+            bound += step;
+            step <<= 1;
+        }
+        to = Math.min(bound, to);
+        while (from < to) {
+            int middle = (from + to) >>> 1;
+            if (tids[middle] < tid) {
+                from = middle + 1;
+            } else {
+                to = middle;
+            }
+        }
+        return from;
+    }
+
+    /**
+     * Get the number of events of the timepoints in [start, end] in the X view
+     *
+     * @param start start timepoint
+     * @param end   end timepoint
+     * @return the number of events
+     */
+    public int getEventCountOfDuration(int start, int end) {
+        start = Math.max(start, 1);
+        end = Math.min(end, this.largestTID);
+        return end < start ? 0 : this.offsets[end + 1] - this.offsets[start];
+    }
+
+    /**
+     * Get the number of events of the timepoints in [start, end] in the Y view
+     *
+     * @param start start timepoint
+     * @param end   end timepoint
+     * @return the number of events
+     */
+    public int getYEventCountOfDuration(int start, int end) {
+        start = Math.max(start, 1);
+        end = Math.min(end, this.largestTID);
+        return end < start ? 0 : this.offsets[end + 1] - this.offsets[start];
+    }
+
+    /**
+     * Get the number of timepoints that contain events in the Y view
+     *
+     * @return the number of timepoints
+     */
+    public int getYTimepointCount() {
+        int count = 0;
+        for (int TID = 1; TID <= this.largestTID; TID++) {
+            if (this.offsets[TID + 1] > this.offsets[TID]) {
+                count++;
+            }
+        }
+        return count;
     }
 
     /**
@@ -81,108 +521,231 @@ public class ComplexSequence {
      * minUtilityAbsolute measure, calculate the TWU of each event, 2. get the
      * singleCandidates that thier TWU larger than minUtilityAbsolute (remove the
      * non 1-candidate from mapSingleCandidatesWithMOs_Utility_Pair) 3. prune the
-     * non singleCandidates from the complex sequence 4. sort each event at each
-     * timepoint by the TWU order
+     * non singleCandidates from the complex sequence, with the events whose
+     * support is below minsup * minconf, which cannot be in a consequent. The
+     * events of each timepoint stay sorted by code (see encodeEvents() and
+     * remapEvents()).
      *
      * @param maxDuration                           a maximum duration
      * @param minUtilityAbsolute                    a minimum utility value
      * @param mapSingleCandidatesWithMOsUtilityPair a map of
+     * @param pool                                  the pool computing the active
+     *                                              utilities in parallel, or null
+     * @return the active utility (WEU) of each event code
      */
-    public void pruneSingleEventsByUpperBound(int maxDuration, double minUtilityAbsolute, int minsup, double minconf,
-                                              Map<Integer, AlgoUPER.SingleMoListUtilityList> mapSingleCandidatesWithMOsUtilityPair) {
+    public long[] pruneSingleEventsByUpperBound(int maxDuration, double minUtilityAbsolute, int minsup, double minconf,
+                                              Map<Integer, AlgoUPER.SingleMoListUtilityList> mapSingleCandidatesWithMOsUtilityPair,
+                                              ForkJoinPool pool) {
 
         // 1. calculate active utility
         /*
-          key: event, value: active utility = utility of active occurrence
+          index: event, value: active utility = utility of active occurrence
          */
-        Map<Integer, Integer> mapEventWithActUtility = new HashMap<>();
-
-        for (int TID = 1; TID <= this.largestTID; TID++) {
-            EventsEventsUtilityTotalUtility eet = this.mapItemEET.get(TID);
-            if (eet == null) {
-                continue;
+        long[] eventActUtilities;
+        if (pool == null) {
+            eventActUtilities = calculateActiveUtilities(maxDuration, 1, this.largestTID + 1);
+        } else {
+            // each task slides its own window over a range of TIDs
+            int rangeCount = pool.getParallelism();
+            int rangeSize = Math.max(MIN_TID_RANGE, this.largestTID / rangeCount + 1);
+            List<ForkJoinTask<long[]>> tasks = new ArrayList<>();
+            for (int from = 1; from <= this.largestTID; from += rangeSize) {
+                int rangeStart = from;
+                int rangeEnd = Math.min(this.largestTID + 1, from + rangeSize);
+                tasks.add(pool.submit(() -> calculateActiveUtilities(maxDuration, rangeStart, rangeEnd)));
             }
-            // active utility: the utility from TID-maxDuration+1 to TID+maxDuration-1
-            int actUtility = this.getTotalUtilityOfDuration(TID - maxDuration, TID + maxDuration);
-            for (EventUtility pair : eet.getPairs()) {
-                // pair[0] : item , pair[1] : utility
-                mapEventWithActUtility.put(pair.event, mapEventWithActUtility.getOrDefault(pair.event, 0) + actUtility);
+            eventActUtilities = new long[this.eventIds.length];
+            for (ForkJoinTask<long[]> task : tasks) {
+                long[] rangeActUtilities = task.join();
+                for (int event = 0; event < eventActUtilities.length; event++) {
+                    eventActUtilities[event] += rangeActUtilities[event];
+                }
             }
         }
 
         // 2. get the singleCandidates and their minimal occurrences
         // active utility remove
-        for (int item : mapEventWithActUtility.keySet()) {
-            int actUtility = mapEventWithActUtility.get(item);
+        for (int item = 0; item < eventActUtilities.length; item++) {
+            long actUtility = eventActUtilities[item];
             int support = mapSingleCandidatesWithMOsUtilityPair.get(item).moList.size();
             if (support < minsup || actUtility < minUtilityAbsolute) {
                 mapSingleCandidatesWithMOsUtilityPair.remove(item);
             }
 
         }
-        mapYItemEET = mapItemEET;
 
-        // 3. remove the non 1-candidates from the complex sequence
+        // 3. remove the non 1-candidates from the complex sequence, and the
+        // events that cannot reach minsup * minconf
+        int newPos = 0;
         for (int TID = 1; TID <= this.largestTID; TID++) {
-            EventsEventsUtilityTotalUtility eet = this.mapItemEET.get(TID);
-            EventsEventsUtilityTotalUtility Yeet = this.mapYItemEET.get(TID);
-            if (eet == null || Yeet == null) {
-                continue;
-            }
-
-            // pairs[pos][0] represent a event with the order pos
-            // pairs[pos][1] represent the utility of the event with the order pos
-            List<EventUtility> pairs = eet.getPairs();
-            List<EventUtility> Ypairs = Yeet.getPairs();
+            int start = this.offsets[TID];
+            int end = this.offsets[TID + 1];
+            this.offsets[TID] = newPos;
 
             // record the sum of utility by removing
             int removedUtilitySum = 0;
-            int YremovedUtilitySum = 0;
 
             // remove event
-            for (int i = pairs.size() - 1; i >= 0; i--) {
-                int event = pairs.get(i).event;
-                if (!mapSingleCandidatesWithMOsUtilityPair.containsKey(event)) {
+            for (int pos = start; pos < end; pos++) {
+                int event = this.events[pos];
+                int utility = this.utilities[pos];
+                AlgoUPER.SingleMoListUtilityList candidate = mapSingleCandidatesWithMOsUtilityPair.get(event);
+                if (candidate == null || candidate.moList.size() < minsup * minconf) {
                     // record the removed utility
-                    removedUtilitySum += pairs.get(i).utility;
-                    pairs.remove(i);
+                    removedUtilitySum += utility;
+                    continue;
                 }
+                this.events[newPos] = event;
+                this.utilities[newPos] = utility;
+                newPos++;
             }
 
-            for (int i = Ypairs.size() - 1; i >= 0; i--) {
-                int event = Ypairs.get(i).event;
-                if (!mapSingleCandidatesWithMOsUtilityPair.containsKey(event)) {
-                    // record the removed utility
-                    YremovedUtilitySum += Ypairs.get(i).utility;
-                    Ypairs.remove(i);
-                } else {
-                    int Ysupport = mapSingleCandidatesWithMOsUtilityPair.get(event).moList.size();
-                    if (Ysupport < minsup * minconf) {
-                        YremovedUtilitySum += pairs.get(i).utility;
-                        Ypairs.remove(i);
-                    }
-                }
+            if (newPos > this.offsets[TID]) {
+                this.totalUtility[TID] -= removedUtilitySum;
+            } else {
+                this.totalUtility[TID] = 0;
             }
+        }
+        this.offsets[this.largestTID + 1] = newPos;
+        this.eventCount = newPos;
+        this.events = Arrays.copyOf(this.events, newPos);
+        this.utilities = Arrays.copyOf(this.utilities, newPos);
+        buildPrefixUtilities();
+        return eventActUtilities;
+    }
 
-            if (pairs.size() > 0) {
-                // 4. sort the pairs by the order of the upper-bound utility
-                // sort the pairs by the order of the active utility
-                eet.setPairs(pairs);
-                eet.setTotalUtility(eet.getTotalUtility() - removedUtilitySum);
-            } else {
-                this.mapItemEET.remove(TID);
+    /**
+     * Give new codes to the events of the sequence. If the new codes are not in
+     * ascending event order, the events of each timepoint are sorted again by
+     * code.
+     *
+     * @param newCodes     the new code of each current code, or -1 for an event
+     *                     that no longer occurs in the sequence
+     * @param alphabetSize the number of new codes
+     */
+    public void remapEvents(int[] newCodes, int alphabetSize) {
+        int[] newEventIds = new int[alphabetSize];
+        for (int code = 0; code < newCodes.length; code++) {
+            if (newCodes[code] >= 0) {
+                newEventIds[newCodes[code]] = this.eventIds[code];
             }
+        }
+        this.eventIds = newEventIds;
+        for (int pos = 0; pos < this.eventCount; pos++) {
+            this.events[pos] = newCodes[this.events[pos]];
+        }
 
-            if (Ypairs.size() > 0) {
-                Yeet.setPairs(Ypairs);
-                Yeet.setTotalUtility(Yeet.getTotalUtility() - YremovedUtilitySum);
-            } else {
-                this.mapYItemEET.remove(TID);
+        boolean ascending = true;
+        for (int code = 1; code < alphabetSize; code++) {
+            if (newEventIds[code] < newEventIds[code - 1]) {
+                ascending = false;
+                break;
             }
         }
+        if (!ascending) {
+            sortTimepoints(this.offsets, this.events, this.utilities);
+        }
+    }
 
-        mapEventWithActUtility.clear();
+    /**
+     * Sort the events of each timepoint of a view by code
+     *
+     * @param offsets   the offsets of the timepoints of the view
+     * @param events    the events of the view
+     * @param utilities the utilities of the view
+     */
+    private void sortTimepoints(int[] offsets, int[] events, int[] utilities) {
+        long[] pairs = new long[0];
+        for (int TID = 1; TID <= this.largestTID; TID++) {
+            int start = offsets[TID];
+            int end = offsets[TID + 1];
+            if (end - start <= INSERTION_SORT_SIZE) {
+                sortTimepoint(events, utilities, start, end);
+                continue;
+            }
+            // a wide timepoint: sort (code, utility) pairs packed in longs
+            if (pairs.length < end - start) {
+                pairs = new long[end - start];
+            }
+            for (int pos = start; pos < end; pos++) {
+                pairs[pos - start] = (long) events[pos] << 32 | (utilities[pos] & 0xFFFFFFFFL);
+            }
+            Arrays.sort(pairs, 0, end - start);
+            for (int pos = start; pos < end; pos++) {
+                events[pos] = (int) (pairs[pos - start] >>> 32);
+                utilities[pos] = (int) pairs[pos - start];
+            }
+        }
+    }
 
+    /**
+     * Sort the events of a small timepoint by code (insertion sort, linear if
+     * they are already sorted), moving their utilities with them
+     *
+     * @param events    the events of a view
+     * @param utilities the utilities of the view
+     * @param start     the position of the first event
+     * @param end       the position after the last event
+     */
+    private static void sortTimepoint(int[] events, int[] utilities, int start, int end) {
+        for (int pos = start + 1; pos < end; pos++) {
+            int event = events[pos];
+            int utility = utilities[pos];
+            int insert = pos;
+            while (insert > start && events[insert - 1] > event) {
+                events[insert] = events[insert - 1];
+                utilities[insert] = utilities[insert - 1];
+                insert--;
+            }
+            events[insert] = event;
+            utilities[insert] = utility;
+        }
+    }
+
+    /**
+     * Calculate the active utility of the events of the timepoints in [from, to).
+     * The active utility of an occurrence at TID is the total utility of
+     * [TID - maxDuration, TID + maxDuration], it is maintained by sliding a
+     * window over the TIDs, starting from the window of the first TID.
+     *
+     * @param maxDuration a maximum duration
+     * @param from        the first TID
+     * @param to          the TID after the last TID
+     * @return the active utility of each event in the range
+     */
+    private long[] calculateActiveUtilities(int maxDuration, int from, int to) {
+        long[] eventActUtilities = new long[this.eventIds.length];
+        int actUtility = this.getTotalUtilityOfDuration(from - maxDuration, from + maxDuration);
+        for (int TID = from; TID < to; TID++) {
+            if (TID > from) {
+                // slide the window by one timepoint
+                actUtility += getTotalUtility(TID + maxDuration) - getTotalUtility(TID - maxDuration - 1);
+            }
+            for (int pos = this.offsets[TID]; pos < this.offsets[TID + 1]; pos++) {
+                eventActUtilities[this.events[pos]] += actUtility;
+            }
+        }
+        return eventActUtilities;
+    }
+
+    /**
+     * Get the total utility of a TID in the X view
+     *
+     * @param tid the transaction identifier
+     * @return the total utility, 0 if TID is out of the sequence
+     */
+    private int getTotalUtility(int tid) {
+        return tid < 1 || tid > this.largestTID ? 0 : this.totalUtility[tid];
+    }
+
+    /**
+     * (Re)build the prefix sums of the total utilities
+     */
+    private void buildPrefixUtilities() {
+        this.prefixUtility = new long[this.largestTID + 1];
+        for (int TID = 1; TID <= this.largestTID; TID++) {
+            this.prefixUtility[TID] = this.prefixUtility[TID - 1] + this.totalUtility[TID];
+        }
     }
 
     /**
@@ -191,113 +754,87 @@ public class ComplexSequence {
      *
      * @param start start timepoint
      * @param end   end timepoint
-     * @return
+     * @return the total utility
      */
     public int getTotalUtilityOfDuration(int start, int end) {
+        return getUtilityOfDuration(this.prefixUtility, start, end);
+    }
+
+    /**
+     * Get the total utility of all timepoints in the [start, end] of the Y view
+     *
+     * @param start start timepoint
+     * @param end   end timepoint
+     * @return the total utility
+     */
+    public int getYTotalUtilityOfDuration(int start, int end) {
+        return getUtilityOfDuration(this.prefixUtility, start, end);
+    }
 
+    /**
+     * Get the sum of the total utilities in [start, end] from prefix sums
+     *
+     * @param prefix the prefix sums of a view
+     * @param start  start timepoint
+     * @param end    end timepoint
+     * @return the total utility
+     */
+    private int getUtilityOfDuration(long[] prefix, int start, int end) {
         if (start > this.largestTID) {
             return 0;
         }
         if (end > this.largestTID) {
             end = this.largestTID;
         }
-        int totalUtility = 0;
-        for (int TID = start; TID <= end; TID++) {
-            if (this.mapItemEET.containsKey(TID)) {
-                totalUtility += this.mapItemEET.get(TID).getTotalUtility();
-            }
+        if (start < 1) {
+            start = 1;
         }
-        return totalUtility;
+        if (end < start) {
+            return 0;
+        }
+        return (int) (prefix[end] - prefix[start - 1]);
     }
 
     /**
-     * implements a class contains events, their utilities, and the totalUtility for
-     * one timepoint
+     * The inverted index of a view: the TIDs where the code e occurs are
+     * tids[offsets[e] .. offsets[e+1]), in ascending order, with the utilities
+     * of the occurrences at the same positions in utilities
      */
-    public class EventsEventsUtilityTotalUtility {
-        /**
-         * An array of pairs where: pairs[pos][0] represent an event with the order pos
-         * pairs[pos][1] represent the utility of the event with the order pos
-         */
-        List<EventUtility> pairs;
-
-        /**
-         * the total utility
-         */
-        int totalUtility;
-
-        /**
-         * Constructor
-         */
-        public EventsEventsUtilityTotalUtility() {
-            this.pairs = new ArrayList<>();
-            this.totalUtility = 0;
-        }
-
-        /**
-         * Constructor with a list of pairs and a total utility
-         */
-        public EventsEventsUtilityTotalUtility(List<EventUtility> pairs, int totalUtility) {
-            this.pairs = pairs;
-            this.totalUtility = totalUtility;
-        }
-
-        /**
-         * Add ane event and its utility to the list of pairs
-         *
-         * @param event   an event
-         * @param utility its utility
-         */
-        public void add(int event, int utility) {
-            this.pairs.add(new EventUtility(event, utility));
-        }
-
-        /**
-         * Set the total utility
-         *
-         * @param totalUtility the total utility
-         */
-        public void setTotalUtility(int totalUtility) {
-            this.totalUtility = totalUtility;
-        }
+    private static final class EventIndex {
+        private final int[] offsets;
 
-        /**
-         * Get the total utility
-         *
-         * @return the total utility
-         */
-        public int getTotalUtility() {
-            return totalUtility;
-        }
+        private final int[] tids;
 
-        /**
-         * Get the list of pairs
-         *
-         * @return the list of pairs
-         */
-        public List<EventUtility> getPairs() {
-            return pairs;
-        }
+        private final int[] utilities;
 
         /**
-         * Set the list of pairs
+         * Build the index of a view
          *
-         * @param pairs the list of pairs
+         * @param alphabetSize   the number of event codes
+         * @param largestTID     the largest TID of the view
+         * @param eventOffsets   the offsets of the timepoints of the view
+         * @param events         the events of the view
+         * @param eventUtilities the utilities of the view
          */
-        public void setPairs(List<EventUtility> pairs) {
-            this.pairs = pairs;
-        }
-
-
-    }
-
-    public class EventUtility {
-        int event;
-        int utility;
-
-        public EventUtility(int event, int utility) {
-            this.event = event;
-            this.utility = utility;
+        EventIndex(int alphabetSize, int largestTID, int[] eventOffsets, int[] events, int[] eventUtilities) {
+            int eventCount = eventOffsets[largestTID + 1];
+            this.offsets = new int[alphabetSize + 1];
+            for (int pos = 0; pos < eventCount; pos++) {
+                this.offsets[events[pos] + 1]++;
+            }
+            for (int code = 0; code < alphabetSize; code++) {
+                this.offsets[code + 1] += this.offsets[code];
+            }
+            this.tids = new int[eventCount];
+            this.utilities = new int[eventCount];
+            int[] next = Arrays.copyOf(this.offsets, alphabetSize);
+            for (int TID = 1; TID <= largestTID; TID++) {
+                for (int pos = eventOffsets[TID]; pos < eventOffsets[TID + 1]; pos++) {
+                    int indexPos = next[events[pos]]++;
+                    this.tids[indexPos] = TID;
+                    this.utilities[indexPos] = eventUtilities[pos];
+                }
+            }
         }
     }
 }
@@ -0,0 +1,232 @@
+import java.util.Arrays;
+
+/**
+ * A bounded cache of the consequent windows of the antecedent occurrences.
+ * The window of an antecedent ending at antiEnd is made of the events of the
+ * Y view at the timepoints antiEnd + 1 .. antiEnd + YSpan + XYSpan - 1, with
+ * their utilities and the remaining utility of each timepoint. It only depends
+ * on antiEnd, so it is shared by all the antecedents having an occurrence that
+ * ends there.
+ * <p>
+ * The windows are kept in a fixed number of slots, whose arrays are reused, and
+ * are evicted with the clock algorithm: a window is given a second chance if
+ * it has been used since the hand last passed it. The slot of a window is found
+ * from its antiEnd in an open-addressing table sized to the number of slots,
+ * so the memory of the cache does not depend on the length of the sequence.
+ */
+public class ConsequentWindowCache {
+    /**
+     * the empty entries of the table
+     */
+    private static final int EMPTY = -1;
+
+    /**
+     * the table from the antiEnd of each cached window to its slot, with linear
+     * probing: tableEnds[i] is an antiEnd or EMPTY, and tableSlots[i] its slot.
+     * It has at least twice as many entries as slots.
+     */
+    private final int[] tableEnds;
+    private final int[] tableSlots;
+
+    /**
+     * the antiEnd of the window of each slot, or -1
+     */
+    private final int[] endOfSlot;
+
+    /**
+     * whether the window of each slot has been used since the hand passed it
+     */
+    private final boolean[] used;
+
+    /**
+     * the events of the window of each slot, with their TID, utility and
+     * remaining utility: the entries [0, sizes[slot])
+     */
+    private final int[][] tids;
+    private final int[][] events;
+    private final int[][] utilities;
+    private final int[][] remainingUtilities;
+    private final int[] sizes;
+
+    /**
+     * the next slot examined to evict a window
+     */
+    private int hand = 0;
+
+    /**
+     * the number of windows found and not found by find()
+     */
+    private long hitCount = 0;
+    private long missCount = 0;
+
+    /**
+     * Constructor
+     *
+     * @param capacity the number of windows kept
+     */
+    public ConsequentWindowCache(int capacity) {
+        capacity = Math.max(1, capacity);
+        int tableSize = 2;
+        while (tableSize < capacity * 2L) {
+            tableSize <<= 1;
+        }
+        this.tableEnds = new int[tableSize];
+        Arrays.fill(this.tableEnds, EMPTY);
+        this.tableSlots = new int[tableSize];
+        this.endOfSlot = new int[capacity];
+        Arrays.fill(this.endOfSlot, -1);
+        this.used = new boolean[capacity];
+        this.tids = new int[capacity][];
+        this.events = new int[capacity][];
+        this.utilities = new int[capacity][];
+        this.remainingUtilities = new int[capacity][];
+        this.sizes = new int[capacity];
+    }
+
+    /**
+     * Find the window of an antecedent end
+     *
+     * @param antiEnd the end of an antecedent occurrence
+     * @return the slot of the window, or -1 if it is not cached
+     */
+    public int find(int antiEnd) {
+        int entry = antiEnd >= 0 ? findEntry(antiEnd) : -1;
+        if (entry < 0 || this.tableEnds[entry] == EMPTY) {
+            this.missCount++;
+            return -1;
+        }
+        int slot = this.tableSlots[entry];
+        this.hitCount++;
+        this.used[slot] = true;
+        return slot;
+    }
+
+    /**
+     * Give an empty slot to the window of an antecedent end, evicting a window
+     * if needed. The window must then be filled with add().
+     *
+     * @param antiEnd the end of an antecedent occurrence, not cached
+     * @return the slot
+     */
+    public int allocate(int antiEnd) {
+        while (this.used[this.hand]) {
+            this.used[this.hand] = false;
+            this.hand = (this.hand + 1) % this.endOfSlot.length;
+        }
+        int slot = this.hand;
+        this.hand = (this.hand + 1) % this.endOfSlot.length;
+        if (this.endOfSlot[slot] >= 0) {
+            removeEntry(findEntry(this.endOfSlot[slot]));
+        }
+        this.endOfSlot[slot] = -1;
+        if (antiEnd >= 0) {
+            int entry = findEntry(antiEnd);
+            this.tableEnds[entry] = antiEnd;
+            this.tableSlots[entry] = slot;
+            this.endOfSlot[slot] = antiEnd;
+        }
+        this.used[slot] = true;
+        this.sizes[slot] = 0;
+        if (this.tids[slot] == null) {
+            this.tids[slot] = new int[16];
+            this.events[slot] = new int[16];
+            this.utilities[slot] = new int[16];
+            this.remainingUtilities[slot] = new int[16];
+        }
+        return slot;
+    }
+
+    /**
+     * Find the entry of an antiEnd in the table, or the empty entry where it
+     * would be inserted
+     */
+    private int findEntry(int antiEnd) {
+        int mask = this.tableEnds.length - 1;
+        int entry = home(antiEnd);
+        while (this.tableEnds[entry] != EMPTY && this.tableEnds[entry] != antiEnd) {
+            entry = (entry + 1) & mask;
+        }
+        return entry;
+    }
+
+    /**
+     * Remove an entry from the table, moving back the entries that follow it in
+     * its probe sequence so that they can still be found
+     */
+    private void removeEntry(int entry) {
+        int mask = this.tableEnds.length - 1;
+        int hole = entry;
+        for (int next = (hole + 1) & mask; this.tableEnds[next] != EMPTY; next = (next + 1) & mask) {
+            // the entry can fill the hole if the hole is between its home and it
+            if (((next - home(this.tableEnds[next])) & mask) >= ((next - hole) & mask)) {
+                this.tableEnds[hole] = this.tableEnds[next];
+                this.tableSlots[hole] = this.tableSlots[next];
+                hole = next;
+            }
+        }
+        this.tableEnds[hole] = EMPTY;
+    }
+
+    /**
+     * Get the first entry of the probe sequence of an antiEnd
+     */
+    private int home(int antiEnd) {
+        int hash = antiEnd * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & (this.tableEnds.length - 1);
+    }
+
+    /**
+     * Add an event to the window of a slot
+     *
+     * @param slot             the slot
+     * @param tid              the TID of the event
+     * @param event            the event code
+     * @param utility          its utility
+     * @param remainingUtility the remaining utility of the TID
+     */
+    public void add(int slot, int tid, int event, int utility, int remainingUtility) {
+        int size = this.sizes[slot];
+        if (size == this.tids[slot].length) {
+            this.tids[slot] = Arrays.copyOf(this.tids[slot], size * 2);
+            this.events[slot] = Arrays.copyOf(this.events[slot], size * 2);
+            this.utilities[slot] = Arrays.copyOf(this.utilities[slot], size * 2);
+            this.remainingUtilities[slot] = Arrays.copyOf(this.remainingUtilities[slot], size * 2);
+        }
+        this.tids[slot][size] = tid;
+        this.events[slot][size] = event;
+        this.utilities[slot][size] = utility;
+        this.remainingUtilities[slot][size] = remainingUtility;
+        this.sizes[slot] = size + 1;
+    }
+
+    /**
+     * Get the number of events of the window of a slot
+     */
+    public int size(int slot) {
+        return this.sizes[slot];
+    }
+
+    public int[] getTids(int slot) {
+        return this.tids[slot];
+    }
+
+    public int[] getEvents(int slot) {
+        return this.events[slot];
+    }
+
+    public int[] getUtilities(int slot) {
+        return this.utilities[slot];
+    }
+
+    public int[] getRemainingUtilities(int slot) {
+        return this.remainingUtilities[slot];
+    }
+
+    public long getHitCount() {
+        return this.hitCount;
+    }
+
+    public long getMissCount() {
+        return this.missCount;
+    }
+}
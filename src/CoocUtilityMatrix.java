@@ -0,0 +1,355 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The co-occurrence utility matrix (REUCS) used by the WEUP strategy. For two
+ * event codes i and j, it gives the sum of the WEU of the occurrences where j
+ * follows i within the maximum span, or ABSENT if j never follows i.
+ * <p>
+ * The matrix is filled through a Builder, which then picks a flat dense matrix
+ * when the alphabet is small or the matrix is dense enough, and a sparse matrix
+ * (sorted columns of each row, searched by binary search) otherwise.
+ * <p>
+ * For very large alphabets, a Sketch (count-min sketch) of bounded memory can
+ * be used instead. It only over-estimates the utilities, so it prunes less
+ * than the exact matrix but never drops a rule.
+ */
+public abstract class CoocUtilityMatrix {
+
+    /**
+     * the value of a pair of events that never co-occur
+     */
+    public static final long ABSENT = Long.MIN_VALUE;
+
+    /**
+     * an alphabet with at most this number of cells always uses a dense matrix
+     */
+    private static final long SMALL_ALPHABET_CELLS = 1L << 20;
+
+    /**
+     * the largest number of cells of a dense matrix
+     */
+    private static final long MAX_DENSE_CELLS = 1L << 24;
+
+    /**
+     * a larger alphabet uses a dense matrix if at least 1 / DENSITY_RATIO of
+     * the cells are filled
+     */
+    private static final long DENSITY_RATIO = 4;
+
+    /**
+     * Get the co-occurrence utility of a pair of events
+     *
+     * @param i an event code
+     * @param j an event code
+     * @return the sum of the WEU of the occurrences where j follows i, or ABSENT
+     */
+    public abstract long get(int i, int j);
+
+    /**
+     * Get the number of bytes used by the matrix
+     *
+     * @return a number of bytes
+     */
+    public abstract long getMemorySize();
+
+    /**
+     * accumulates the utilities of the pairs of events while the matrix is built
+     */
+    public interface Accumulator {
+        /**
+         * Add the utility of an occurrence of the pair (i, j)
+         *
+         * @param i       an event code
+         * @param j       an event code following i
+         * @param utility the utility to add
+         */
+        void add(int i, int j, long utility);
+    }
+
+    /**
+     * implements a flat matrix of eventCount * eventCount cells
+     */
+    static class Dense extends CoocUtilityMatrix {
+        private final int eventCount;
+        private final long[] cells;
+
+        Dense(Builder builder) {
+            this.eventCount = builder.eventCount;
+            this.cells = new long[eventCount * eventCount];
+            Arrays.fill(this.cells, ABSENT);
+            for (int slot = 0; slot < builder.keys.length; slot++) {
+                if (builder.keys[slot] != Builder.EMPTY) {
+                    this.cells[(int) builder.keys[slot]] = builder.values[slot];
+                }
+            }
+        }
+
+        @Override
+        public long get(int i, int j) {
+            return this.cells[i * this.eventCount + j];
+        }
+
+        @Override
+        public long getMemorySize() {
+            return this.cells.length * 8L;
+        }
+    }
+
+    /**
+     * implements a sparse matrix: the columns of row i are
+     * columns[rowOffsets[i] .. rowOffsets[i+1]), in ascending order, with their
+     * values at the same positions in values
+     */
+    static class Sparse extends CoocUtilityMatrix {
+        private final int[] rowOffsets;
+        private final int[] columns;
+        private final long[] values;
+
+        Sparse(Builder builder) {
+            int eventCount = builder.eventCount;
+            this.rowOffsets = new int[eventCount + 1];
+            this.columns = new int[builder.size];
+            this.values = new long[builder.size];
+
+            // count the pairs of each row
+            for (long key : builder.keys) {
+                if (key != Builder.EMPTY) {
+                    this.rowOffsets[(int) (key / eventCount) + 1]++;
+                }
+            }
+            for (int i = 0; i < eventCount; i++) {
+                this.rowOffsets[i + 1] += this.rowOffsets[i];
+            }
+
+            // fill the columns, then sort each row and fetch the values
+            int[] next = Arrays.copyOf(this.rowOffsets, eventCount);
+            for (long key : builder.keys) {
+                if (key != Builder.EMPTY) {
+                    this.columns[next[(int) (key / eventCount)]++] = (int) (key % eventCount);
+                }
+            }
+            for (int i = 0; i < eventCount; i++) {
+                Arrays.sort(this.columns, this.rowOffsets[i], this.rowOffsets[i + 1]);
+                for (int pos = this.rowOffsets[i]; pos < this.rowOffsets[i + 1]; pos++) {
+                    this.values[pos] = builder.get(i, this.columns[pos]);
+                }
+            }
+        }
+
+        @Override
+        public long get(int i, int j) {
+            int pos = Arrays.binarySearch(this.columns, this.rowOffsets[i], this.rowOffsets[i + 1], j);
+            return pos >= 0 ? this.values[pos] : ABSENT;
+        }
+
+        @Override
+        public long getMemorySize() {
+            return this.rowOffsets.length * 4L + this.columns.length * 12L;
+        }
+    }
+
+    /**
+     * implements a count-min sketch: depth rows of width counters, each pair of
+     * events being hashed to one counter of each row. A counter is the sum of
+     * the utilities of all the pairs hashed to it, so the smallest of the
+     * counters of a pair is never below its utility, and exceeds it by at most
+     * e / width of the total utility with probability 1 - exp(-depth).
+     * <p>
+     * A pair that never co-occurs gets an estimate instead of ABSENT, and may
+     * thus be pruned. This is safe: the events of a rule are at most maxSpan
+     * apart, so such a pair is never part of a rule. The counters are atomic,
+     * so that several tasks may fill the sketch at the same time.
+     */
+    public static class Sketch extends CoocUtilityMatrix implements Accumulator {
+        private final int eventCount;
+        private final int depth;
+        private final int width;
+        private final AtomicLongArray counters;
+
+        /**
+         * Constructor
+         *
+         * @param eventCount the number of event codes
+         * @param maxMemory  the maximum number of bytes of the counters
+         * @param depth      the number of rows
+         */
+        public Sketch(int eventCount, long maxMemory, int depth) {
+            this.eventCount = eventCount;
+            this.depth = Math.max(1, depth);
+            this.width = (int) Math.max(1, Math.min(Integer.MAX_VALUE / this.depth, maxMemory / 8 / this.depth));
+            this.counters = new AtomicLongArray(this.depth * this.width);
+        }
+
+        @Override
+        public void add(int i, int j, long utility) {
+            long key = (long) i * this.eventCount + j;
+            for (int row = 0; row < this.depth; row++) {
+                this.counters.addAndGet(index(row, key), utility);
+            }
+        }
+
+        @Override
+        public long get(int i, int j) {
+            long key = (long) i * this.eventCount + j;
+            long estimate = Long.MAX_VALUE;
+            for (int row = 0; row < this.depth; row++) {
+                estimate = Math.min(estimate, this.counters.get(index(row, key)));
+            }
+            return estimate;
+        }
+
+        /**
+         * Get the position of the counter of a key in a row
+         */
+        private int index(int row, long key) {
+            long hash = key * 0x9E3779B97F4A7C15L + (row + 1) * 0xC2B2AE3D27D4EB4FL;
+            hash = (hash ^ (hash >>> 31)) * 0xBF58476D1CE4E5B9L;
+            hash ^= hash >>> 29;
+            return row * this.width + (int) ((hash >>> 1) % this.width);
+        }
+
+        @Override
+        public long getMemorySize() {
+            return this.counters.length() * 8L;
+        }
+
+        /**
+         * Get the bound of the over-estimation of a pair, which holds with
+         * probability 1 - exp(-depth)
+         *
+         * @return e / width of the sum of all the utilities
+         */
+        public double getErrorBound() {
+            long total = 0;
+            for (int column = 0; column < this.width; column++) {
+                total += this.counters.get(column);
+            }
+            return Math.E / this.width * total;
+        }
+
+        public int getDepth() {
+            return this.depth;
+        }
+
+        public int getWidth() {
+            return this.width;
+        }
+    }
+
+    /**
+     * implements an open-addressing table accumulating the utility of each pair
+     * of events, keyed by i * eventCount + j
+     */
+    public static class Builder implements Accumulator {
+        static final long EMPTY = -1;
+
+        private final int eventCount;
+        private long[] keys;
+        private long[] values;
+        private int size;
+
+        /**
+         * Constructor
+         *
+         * @param eventCount the number of event codes
+         */
+        public Builder(int eventCount) {
+            this.eventCount = eventCount;
+            this.keys = new long[1024];
+            this.values = new long[1024];
+            Arrays.fill(this.keys, EMPTY);
+        }
+
+        @Override
+        public void add(int i, int j, long utility) {
+            long key = (long) i * this.eventCount + j;
+            int slot = find(key);
+            if (this.keys[slot] == EMPTY) {
+                this.keys[slot] = key;
+                this.values[slot] = utility;
+                if (++this.size * 2 > this.keys.length) {
+                    grow();
+                }
+            } else {
+                this.values[slot] += utility;
+            }
+        }
+
+        /**
+         * Merge two builders by adding the pairs of the smaller one into the
+         * larger one
+         *
+         * @param other a builder over the same event codes
+         * @return the builder holding the merged pairs
+         */
+        public Builder addAll(Builder other) {
+            if (other.size > this.size) {
+                return other.addAll(this);
+            }
+            for (int slot = 0; slot < other.keys.length; slot++) {
+                long key = other.keys[slot];
+                if (key != EMPTY) {
+                    add((int) (key / this.eventCount), (int) (key % this.eventCount), other.values[slot]);
+                }
+            }
+            return this;
+        }
+
+        /**
+         * Get the accumulated utility of the pair (i, j)
+         *
+         * @return the utility, or ABSENT
+         */
+        long get(int i, int j) {
+            int slot = find((long) i * this.eventCount + j);
+            return this.keys[slot] == EMPTY ? ABSENT : this.values[slot];
+        }
+
+        /**
+         * Find the slot of a key, or the empty slot where it would be inserted
+         */
+        private int find(long key) {
+            int mask = this.keys.length - 1;
+            int slot = (int) (mix(key) & mask);
+            while (this.keys[slot] != EMPTY && this.keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private static long mix(long key) {
+            key *= 0x9E3779B97F4A7C15L;
+            return key ^ (key >>> 32);
+        }
+
+        private void grow() {
+            long[] oldKeys = this.keys;
+            long[] oldValues = this.values;
+            this.keys = new long[oldKeys.length * 2];
+            this.values = new long[oldValues.length * 2];
+            Arrays.fill(this.keys, EMPTY);
+            for (int slot = 0; slot < oldKeys.length; slot++) {
+                if (oldKeys[slot] != EMPTY) {
+                    int newSlot = find(oldKeys[slot]);
+                    this.keys[newSlot] = oldKeys[slot];
+                    this.values[newSlot] = oldValues[slot];
+                }
+            }
+        }
+
+        /**
+         * Build the matrix, dense or sparse depending on the size of the alphabet
+         * and on the number of pairs
+         *
+         * @return the matrix
+         */
+        public CoocUtilityMatrix build() {
+            long cells = (long) this.eventCount * this.eventCount;
+            if (cells <= SMALL_ALPHABET_CELLS || (cells <= MAX_DENSE_CELLS && this.size * DENSITY_RATIO >= cells)) {
+                return new Dense(this);
+            }
+            return new Sparse(this);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/**
+ * A prefix tree of episodes. An episode is a node, an int: its last event and
+ * the node of the episode without its last event (its parent) are stored in
+ * int arrays, so the episodes sharing a prefix share its nodes and an episode
+ * is materialized only when it is needed. The node ROOT is the empty episode.
+ * <p>
+ * The nodes are stored in chunks of a directory allocated at construction, so
+ * a node never moves. Nodes can be added by several threads; a thread may read
+ * the nodes that it added or that were handed to it with a happens-before
+ * relation (by a fork/join task or a concurrent queue, for instance).
+ */
+public class EpisodeTrie {
+    /**
+     * the empty episode
+     */
+    public static final int ROOT = 0;
+
+    /**
+     * each chunk holds 2^CHUNK_BITS nodes
+     */
+    private static final int CHUNK_BITS = 16;
+
+    private static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+
+    /**
+     * the chunks of the nodes, the node n being at chunks[n >>> CHUNK_BITS]:
+     * its parent at 2 * (n & CHUNK_MASK) and its event at the next position
+     */
+    private final int[][] chunks = new int[1 << (31 - CHUNK_BITS)][];
+
+    /**
+     * the number of nodes, the root included
+     */
+    private int size;
+
+    /**
+     * Constructor
+     */
+    public EpisodeTrie() {
+        clear();
+    }
+
+    /**
+     * Add the episode that extends an episode with an event
+     *
+     * @param parent the node of the episode
+     * @param event  the event code
+     * @return the node of the extended episode
+     */
+    public synchronized int add(int parent, int event) {
+        int node = this.size;
+        if (node == Integer.MAX_VALUE) {
+            throw new IllegalStateException("too many episodes");
+        }
+        int[] chunk = this.chunks[node >>> CHUNK_BITS];
+        if (chunk == null) {
+            chunk = new int[2 << CHUNK_BITS];
+            this.chunks[node >>> CHUNK_BITS] = chunk;
+        }
+        int pos = 2 * (node & CHUNK_MASK);
+        chunk[pos] = parent;
+        chunk[pos + 1] = event;
+        this.size++;
+        return node;
+    }
+
+    /**
+     * Remove all the episodes, keeping the first chunk
+     */
+    public synchronized void clear() {
+        for (int c = 1; c < this.chunks.length && this.chunks[c] != null; c++) {
+            this.chunks[c] = null;
+        }
+        if (this.chunks[0] == null) {
+            this.chunks[0] = new int[2 << CHUNK_BITS];
+        }
+        this.chunks[0][0] = ROOT;
+        this.size = 1;
+    }
+
+    /**
+     * Get the episode without the last event of an episode
+     *
+     * @param node a node other than ROOT
+     * @return the node of the parent
+     */
+    public int getParent(int node) {
+        return this.chunks[node >>> CHUNK_BITS][2 * (node & CHUNK_MASK)];
+    }
+
+    /**
+     * Get the last event of an episode
+     *
+     * @param node a node other than ROOT
+     * @return the event code
+     */
+    public int getEvent(int node) {
+        return this.chunks[node >>> CHUNK_BITS][2 * (node & CHUNK_MASK) + 1];
+    }
+
+    /**
+     * Get the number of events of an episode
+     *
+     * @param node a node
+     * @return the length of the episode
+     */
+    public int length(int node) {
+        int length = 0;
+        for (; node != ROOT; node = getParent(node)) {
+            length++;
+        }
+        return length;
+    }
+
+    /**
+     * Materialize an episode
+     *
+     * @param node a node
+     * @return the events of the episode, in order
+     */
+    public int[] toArray(int node) {
+        int[] episode = new int[length(node)];
+        for (int i = episode.length - 1; i >= 0; i--) {
+            episode[i] = getEvent(node);
+            node = getParent(node);
+        }
+        return episode;
+    }
+
+    /**
+     * Check whether an episode has the events of an array
+     *
+     * @param node    a node
+     * @param episode the events of an episode, in order
+     * @return true if the episodes are equal
+     */
+    public boolean equals(int node, int[] episode) {
+        for (int i = episode.length - 1; i >= 0; i--) {
+            if (node == ROOT || getEvent(node) != episode[i]) {
+                return false;
+            }
+            node = getParent(node);
+        }
+        return node == ROOT;
+    }
+
+    /**
+     * Compare two episodes by length, then by their events in order
+     *
+     * @param node1 a node
+     * @param node2 a node
+     * @return a negative value, 0 or a positive value if the first episode is
+     * smaller, equal or greater
+     */
+    public int compare(int node1, int node2) {
+        int length1 = length(node1);
+        int length2 = length(node2);
+        if (length1 != length2) {
+            return length1 - length2;
+        }
+        return compareSameLength(node1, node2);
+    }
+
+    /**
+     * Compare two episodes of the same length by their events in order
+     */
+    private int compareSameLength(int node1, int node2) {
+        if (node1 == node2) {
+            return 0;
+        }
+        int compare = compareSameLength(getParent(node1), getParent(node2));
+        return compare != 0 ? compare : Integer.compare(getEvent(node1), getEvent(node2));
+    }
+}
@@ -22,12 +22,36 @@ public class MainTestUPER {
         boolean matrix=true;
         // whether to use tighter upper bound
         boolean tighterUpperBound=true;
+        // whether to prune the X episodes by their antecedent utility upper bound
+        boolean antecedentUtilityPruning = true;
+        // the number of threads used by the parallel parts of the algorithm
+        int threadCount = 1;
+        // the memory (in bytes) of the co-occurrence sketch, 0 to use the exact matrix
+        long coocSketchMemory = 0;
+        // the order of the event codes after pruning: RAW, WEU or SUPPORT
+        AlgoUPER.EventOrder eventOrder = AlgoUPER.EventOrder.RAW;
+        // how occurrences are extended: SCAN, INDEX or ADAPTIVE
+        AlgoUPER.ExtensionMode extensionMode = AlgoUPER.ExtensionMode.ADAPTIVE;
+        // the order in which the consequents are grown: BREADTH_FIRST or DEPTH_FIRST
+        AlgoUPER.ConsequentGrowth consequentGrowth = AlgoUPER.ConsequentGrowth.BREADTH_FIRST;
+        // the capacity of the queue handing the X episodes to the rule mining, 0 to mine all the X episodes first
+        int pipelineCapacity = 0;
+        // the number of consequent windows cached by each thread, 0 to disable the cache
+        int consequentWindowCacheSize = 4096;
         // Input file
         String inputFile = "Malware/Worms_translate3_result.txt";
         // Output file
         String outputFile = "output.txt";
 
         AlgoUPER HUPOERM = new AlgoUPER();
+        HUPOERM.setThreadCount(threadCount);
+        HUPOERM.setAntecedentUtilityPruning(antecedentUtilityPruning);
+        HUPOERM.setCoocSketch(coocSketchMemory, 4);
+        HUPOERM.setEventOrder(eventOrder);
+        HUPOERM.setExtensionMode(extensionMode);
+        HUPOERM.setConsequentGrowth(consequentGrowth);
+        HUPOERM.setPipelineCapacity(pipelineCapacity);
+        HUPOERM.setConsequentWindowCacheSize(consequentWindowCacheSize);
 
         //poerm.runAlgorithm(inputFile, minSupport, xSpan, ySpan, minConfidence, winlen, selfIncrement);
         HUPOERM.runAlgorithm(inputFile, outputFile, minSupport, minConfidence, minUtilityRatio, xSpan, ySpan, xySpan, maxLineNumber,matrix, tighterUpperBound);
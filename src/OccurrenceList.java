@@ -0,0 +1,337 @@
+import java.util.Arrays;
+
+/**
+ * The occurrences of an episode, stored as parallel arrays: the occurrence i
+ * spans the timepoints [starts[i], ends[i]] and has the utility utilities[i].
+ */
+public class OccurrenceList {
+    private int[] starts;
+
+    private int[] ends;
+
+    private int[] utilities;
+
+    /**
+     * the number of occurrences
+     */
+    private int size;
+
+    /**
+     * Constructor
+     */
+    public OccurrenceList() {
+        this(8);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param capacity the initial capacity
+     */
+    public OccurrenceList(int capacity) {
+        capacity = Math.max(1, capacity);
+        this.starts = new int[capacity];
+        this.ends = new int[capacity];
+        this.utilities = new int[capacity];
+    }
+
+    /**
+     * Add an occurrence
+     *
+     * @param start   the start timepoint
+     * @param end     the end timepoint
+     * @param utility the utility
+     */
+    public void add(int start, int end, int utility) {
+        if (this.size == this.starts.length) {
+            int capacity = this.size * 2;
+            this.starts = Arrays.copyOf(this.starts, capacity);
+            this.ends = Arrays.copyOf(this.ends, capacity);
+            this.utilities = Arrays.copyOf(this.utilities, capacity);
+        }
+        this.starts[this.size] = start;
+        this.ends[this.size] = end;
+        this.utilities[this.size] = utility;
+        this.size++;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public int getStart(int i) {
+        return this.starts[i];
+    }
+
+    public int getEnd(int i) {
+        return this.ends[i];
+    }
+
+    public int getUtility(int i) {
+        return this.utilities[i];
+    }
+
+    /**
+     * Remove all the occurrences, keeping the arrays
+     */
+    public void clear() {
+        this.size = 0;
+    }
+
+    /**
+     * Release the unused capacity
+     */
+    public void trimToSize() {
+        if (this.size < this.starts.length) {
+            this.starts = Arrays.copyOf(this.starts, this.size);
+            this.ends = Arrays.copyOf(this.ends, this.size);
+            this.utilities = Arrays.copyOf(this.utilities, this.size);
+        }
+    }
+
+    /**
+     * The occurrence lists of the events met while extending an episode. The
+     * list of an event is reused after clear() unless it has been taken.
+     */
+    public static class Buckets {
+        /**
+         * the list of each event code, null if it has none yet
+         */
+        private final OccurrenceList[] lists;
+
+        /**
+         * the events met since the last clear(), events[0 .. size)
+         */
+        private final int[] events;
+
+        private int size;
+
+        /**
+         * Constructor
+         *
+         * @param alphabetSize the number of event codes
+         */
+        public Buckets(int alphabetSize) {
+            this.lists = new OccurrenceList[alphabetSize];
+            this.events = new int[alphabetSize];
+        }
+
+        /**
+         * Add an occurrence to the list of an event. The occurrences of an
+         * event must be added by end, then by start: an occurrence with the
+         * same interval as the last one only keeps the greater utility, so the
+         * list has one occurrence per interval.
+         *
+         * @param event   an event code
+         * @param start   the start timepoint
+         * @param end     the end timepoint
+         * @param utility the utility
+         */
+        public void add(int event, int start, int end, int utility) {
+            OccurrenceList list = this.lists[event];
+            if (list == null) {
+                list = new OccurrenceList();
+                this.lists[event] = list;
+            }
+            int last = list.size - 1;
+            if (last < 0) {
+                this.events[this.size++] = event;
+            } else if (list.starts[last] == start && list.ends[last] == end) {
+                list.utilities[last] = Math.max(list.utilities[last], utility);
+                return;
+            }
+            list.add(start, end, utility);
+        }
+
+        public int size() {
+            return this.size;
+        }
+
+        /**
+         * Sort the events met by ascending code
+         */
+        public void sortEvents() {
+            Arrays.sort(this.events, 0, this.size);
+        }
+
+        /**
+         * Get an event met
+         *
+         * @param index an index in [0, size())
+         * @return the event code
+         */
+        public int getEvent(int index) {
+            return this.events[index];
+        }
+
+        /**
+         * Get the list of an event met
+         *
+         * @param event an event code
+         * @return the list
+         */
+        public OccurrenceList get(int event) {
+            return this.lists[event];
+        }
+
+        /**
+         * Take the list of an event met: it is trimmed and will not be reused
+         *
+         * @param event an event code
+         * @return the list
+         */
+        public OccurrenceList take(int event) {
+            OccurrenceList list = this.lists[event];
+            this.lists[event] = null;
+            list.trimToSize();
+            return list;
+        }
+
+        /**
+         * Forget the events met, and empty the lists that have not been taken
+         */
+        public void clear() {
+            for (int i = 0; i < this.size; i++) {
+                OccurrenceList list = this.lists[this.events[i]];
+                if (list != null) {
+                    list.clear();
+                }
+            }
+            this.size = 0;
+        }
+    }
+
+    /**
+     * A min-heap merging the extensions of several occurrences by end, then by
+     * start. Each occurrence being merged has a cursor, the position of its
+     * next extension, and the key (end, start) of that extension.
+     */
+    public static class Merge {
+        /**
+         * the occurrences in the heap, heap[0 .. size)
+         */
+        private int[] heap = new int[16];
+
+        private int size;
+
+        /**
+         * the cursor and the key of each occurrence, by occurrence index
+         */
+        private int[] cursors = new int[16];
+        private long[] keys = new long[16];
+
+        /**
+         * Prepare the merge of the extensions of some occurrences
+         *
+         * @param occurrenceCount the number of occurrences
+         */
+        public void reset(int occurrenceCount) {
+            if (this.cursors.length < occurrenceCount) {
+                this.heap = new int[occurrenceCount];
+                this.cursors = new int[occurrenceCount];
+                this.keys = new long[occurrenceCount];
+            }
+            this.size = 0;
+        }
+
+        public boolean isEmpty() {
+            return this.size == 0;
+        }
+
+        /**
+         * Add an occurrence to the heap
+         *
+         * @param occurrence the index of the occurrence
+         * @param cursor     the position of its next extension
+         * @param end        the end of its next extension
+         * @param start      the start of its next extension
+         */
+        public void push(int occurrence, int cursor, int end, int start) {
+            this.cursors[occurrence] = cursor;
+            this.keys[occurrence] = key(end, start);
+            int i = this.size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (this.keys[this.heap[parent]] <= this.keys[occurrence]) {
+                    break;
+                }
+                this.heap[i] = this.heap[parent];
+                i = parent;
+            }
+            this.heap[i] = occurrence;
+        }
+
+        /**
+         * Get the occurrence whose next extension is the smallest
+         */
+        public int getTop() {
+            return this.heap[0];
+        }
+
+        public int getTopCursor() {
+            return this.cursors[this.heap[0]];
+        }
+
+        public int getTopEnd() {
+            return (int) (this.keys[this.heap[0]] >>> 32);
+        }
+
+        public int getTopStart() {
+            return (int) this.keys[this.heap[0]];
+        }
+
+        /**
+         * Move the top occurrence to its next extension
+         *
+         * @param cursor the position of the next extension
+         * @param end    the end of the next extension
+         * @param start  the start of the next extension
+         */
+        public void advanceTop(int cursor, int end, int start) {
+            int occurrence = this.heap[0];
+            this.cursors[occurrence] = cursor;
+            this.keys[occurrence] = key(end, start);
+            siftDown(occurrence);
+        }
+
+        /**
+         * Remove the top occurrence, which has no more extensions
+         */
+        public void removeTop() {
+            int last = this.heap[--this.size];
+            if (this.size > 0) {
+                siftDown(last);
+            }
+        }
+
+        /**
+         * Place an occurrence from the root of the heap down to its position
+         */
+        private void siftDown(int occurrence) {
+            long key = this.keys[occurrence];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= this.size) {
+                    break;
+                }
+                if (child + 1 < this.size && this.keys[this.heap[child + 1]] < this.keys[this.heap[child]]) {
+                    child++;
+                }
+                if (key <= this.keys[this.heap[child]]) {
+                    break;
+                }
+                this.heap[i] = this.heap[child];
+                i = child;
+            }
+            this.heap[i] = occurrence;
+        }
+
+        /**
+         * The timepoints are positive, so the keys compare as (end, start)
+         */
+        private static long key(int end, int start) {
+            return ((long) end << 32) | start;
+        }
+    }
+}
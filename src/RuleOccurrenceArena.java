@@ -0,0 +1,255 @@
+import java.util.Arrays;
+
+/**
+ * The occurrences of rules, stored as columns of int arrays indexed by
+ * occurrence id. The occurrence of a rule X -> Y has the antecedent interval
+ * [antiStart, antiEnd], the consequent interval [conseStart, conseEnd], the
+ * utility of the rule, the utility of X and the remaining utility used by the
+ * REEU strategy.
+ * <p>
+ * An arena is cleared instead of being reallocated, so that the occurrences
+ * of the candidate rules do not create garbage.
+ */
+public class RuleOccurrenceArena {
+    private int[] antiStarts;
+    private int[] antiEnds;
+    private int[] conseStarts;
+    private int[] conseEnds;
+    private int[] utilities;
+    private int[] antiUtilities;
+    private int[] remainingUtilities;
+
+    /**
+     * the number of occurrences, which are the ids [0, size)
+     */
+    private int size;
+
+    /**
+     * Constructor
+     */
+    public RuleOccurrenceArena() {
+        int capacity = 64;
+        this.antiStarts = new int[capacity];
+        this.antiEnds = new int[capacity];
+        this.conseStarts = new int[capacity];
+        this.conseEnds = new int[capacity];
+        this.utilities = new int[capacity];
+        this.antiUtilities = new int[capacity];
+        this.remainingUtilities = new int[capacity];
+    }
+
+    /**
+     * Add an occurrence
+     *
+     * @return the id of the occurrence
+     */
+    public int add(int antiStart, int antiEnd, int conseStart, int conseEnd, int utility, int antiUtility, int remainingUtility) {
+        if (this.size == this.antiStarts.length) {
+            int capacity = this.size * 2;
+            this.antiStarts = Arrays.copyOf(this.antiStarts, capacity);
+            this.antiEnds = Arrays.copyOf(this.antiEnds, capacity);
+            this.conseStarts = Arrays.copyOf(this.conseStarts, capacity);
+            this.conseEnds = Arrays.copyOf(this.conseEnds, capacity);
+            this.utilities = Arrays.copyOf(this.utilities, capacity);
+            this.antiUtilities = Arrays.copyOf(this.antiUtilities, capacity);
+            this.remainingUtilities = Arrays.copyOf(this.remainingUtilities, capacity);
+        }
+        int id = this.size++;
+        this.antiStarts[id] = antiStart;
+        this.antiEnds[id] = antiEnd;
+        this.conseStarts[id] = conseStart;
+        this.conseEnds[id] = conseEnd;
+        this.utilities[id] = utility;
+        this.antiUtilities[id] = antiUtility;
+        this.remainingUtilities[id] = remainingUtility;
+        return id;
+    }
+
+    /**
+     * Add a copy of an occurrence of another arena
+     *
+     * @param other an arena
+     * @param id    the id of the occurrence in the other arena
+     * @return the id of the copy
+     */
+    public int addCopy(RuleOccurrenceArena other, int id) {
+        return add(other.antiStarts[id], other.antiEnds[id], other.conseStarts[id], other.conseEnds[id],
+                other.utilities[id], other.antiUtilities[id], other.remainingUtilities[id]);
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Remove all the occurrences, keeping the arrays
+     */
+    public void clear() {
+        this.size = 0;
+    }
+
+    public int getAntiStart(int id) {
+        return this.antiStarts[id];
+    }
+
+    public int getAntiEnd(int id) {
+        return this.antiEnds[id];
+    }
+
+    public int getConseStart(int id) {
+        return this.conseStarts[id];
+    }
+
+    public int getConseEnd(int id) {
+        return this.conseEnds[id];
+    }
+
+    public int getUtility(int id) {
+        return this.utilities[id];
+    }
+
+    public int getAntiUtility(int id) {
+        return this.antiUtilities[id];
+    }
+
+    public int getRemainingUtility(int id) {
+        return this.remainingUtilities[id];
+    }
+
+    /**
+     * The occurrences of the rules extended with each event. They are stored in
+     * one arena, and the occurrences of an event are chained in their order of
+     * addition.
+     */
+    public static class Buckets {
+        private final RuleOccurrenceArena occurrences = new RuleOccurrenceArena();
+
+        /**
+         * the next occurrence of the same event, or -1
+         */
+        private int[] next = new int[64];
+
+        /**
+         * the first and last occurrence and the number of occurrences of each
+         * event code
+         */
+        private final int[] heads;
+        private final int[] tails;
+        private final int[] counts;
+
+        /**
+         * the events met since the last clear(), events[0 .. size)
+         */
+        private final int[] events;
+
+        private int size;
+
+        /**
+         * Constructor
+         *
+         * @param alphabetSize the number of event codes
+         */
+        public Buckets(int alphabetSize) {
+            this.heads = new int[alphabetSize];
+            this.tails = new int[alphabetSize];
+            this.counts = new int[alphabetSize];
+            this.events = new int[alphabetSize];
+        }
+
+        /**
+         * Add an occurrence to the chain of an event
+         */
+        public void add(int event, int antiStart, int antiEnd, int conseStart, int conseEnd, int utility, int antiUtility, int remainingUtility) {
+            int id = this.occurrences.add(antiStart, antiEnd, conseStart, conseEnd, utility, antiUtility, remainingUtility);
+            if (id == this.next.length) {
+                this.next = Arrays.copyOf(this.next, id * 2);
+            }
+            this.next[id] = -1;
+            if (this.counts[event] == 0) {
+                this.events[this.size++] = event;
+                this.heads[event] = id;
+            } else {
+                this.next[this.tails[event]] = id;
+            }
+            this.tails[event] = id;
+            this.counts[event]++;
+        }
+
+        /**
+         * Get the arena holding the occurrences
+         *
+         * @return the arena
+         */
+        public RuleOccurrenceArena getOccurrences() {
+            return this.occurrences;
+        }
+
+        public int size() {
+            return this.size;
+        }
+
+        /**
+         * Sort the events met by ascending code
+         */
+        public void sortEvents() {
+            Arrays.sort(this.events, 0, this.size);
+        }
+
+        /**
+         * Get an event met
+         *
+         * @param index an index in [0, size())
+         * @return the event code
+         */
+        public int getEvent(int index) {
+            return this.events[index];
+        }
+
+        /**
+         * Get the number of occurrences of an event met
+         */
+        public int getCount(int event) {
+            return this.counts[event];
+        }
+
+        /**
+         * Get the first occurrence of an event met
+         */
+        public int getFirst(int event) {
+            return this.heads[event];
+        }
+
+        /**
+         * Get the occurrence following an occurrence in the chain of its event
+         *
+         * @return an occurrence id, or -1 at the end of the chain
+         */
+        public int getNext(int id) {
+            return this.next[id];
+        }
+
+        /**
+         * Copy the occurrences of an event met at the end of an arena, in
+         * their order
+         *
+         * @param event an event code
+         * @param arena the arena receiving the occurrences
+         */
+        public void copyTo(int event, RuleOccurrenceArena arena) {
+            for (int id = this.heads[event]; id >= 0; id = this.next[id]) {
+                arena.addCopy(this.occurrences, id);
+            }
+        }
+
+        /**
+         * Forget the events met and their occurrences
+         */
+        public void clear() {
+            for (int i = 0; i < this.size; i++) {
+                this.counts[this.events[i]] = 0;
+            }
+            this.size = 0;
+            this.occurrences.clear();
+        }
+    }
+}
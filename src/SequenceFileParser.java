@@ -0,0 +1,505 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * A parser for complex sequence files with lines of the form
+ * events:totalUtility:eventsUtility. The file is memory-mapped and scanned
+ * byte by byte into primitive int buffers, so no String is created while
+ * reading. Empty lines and lines starting with '#', '%' or '@' are skipped
+ * but still counted, so that the line number can be used as the TID.
+ */
+public class SequenceFileParser {
+
+    /**
+     * the largest region of the file that is mapped at once (a MappedByteBuffer
+     * cannot be larger than 2GB)
+     */
+    private static final long MAX_MAPPED_REGION = Integer.MAX_VALUE;
+
+    /**
+     * the smallest chunk of the file given to one task when parsing in parallel
+     */
+    private static final long MIN_CHUNK_SIZE = 1 << 20;
+
+    /**
+     * Parse the first maxLineNumber lines of a file
+     *
+     * @param inputFile     the input file
+     * @param maxLineNumber the maximum number of lines to read
+     * @return the parsed lines
+     * @throws IOException if error reading the file or if a line is malformed
+     */
+    public static ParsedLines parse(String inputFile, int maxLineNumber) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(inputFile, "r");
+             FileChannel channel = file.getChannel()) {
+            return parseRange(channel, 0, channel.size(), maxLineNumber);
+        }
+    }
+
+    /**
+     * Split a file into chunks at line boundaries and parse the chunks in
+     * parallel, one wave of as many chunks as the parallelism of the pool at a
+     * time, until the line maxLineNumber is reached. The lines of each chunk
+     * are numbered from 1, the line number of a line in the file is its number
+     * in its chunk plus the line counts of the previous chunks. The last chunk
+     * may contain lines after maxLineNumber, but a malformed line is reported
+     * only if it is not after maxLineNumber.
+     *
+     * @param inputFile     the input file
+     * @param pool          the pool running the parsing tasks
+     * @param maxLineNumber the maximum number of lines to read
+     * @return the parsed chunks, in file order
+     * @throws IOException if error reading the file or if a line is malformed
+     */
+    public static List<ParsedLines> parseInChunks(String inputFile, ForkJoinPool pool, int maxLineNumber) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(inputFile, "r");
+             FileChannel channel = file.getChannel()) {
+            long fileSize = channel.size();
+            long chunkSize = Math.max(MIN_CHUNK_SIZE, fileSize / (pool.getParallelism() * 4L) + 1);
+
+            List<ParsedLines> chunks = new ArrayList<>();
+            // the number of lines of the parsed chunks
+            long lineCount = 0;
+            // the start of the next chunk, just after a '\n'
+            long boundary = 0;
+            while (boundary < fileSize && lineCount < maxLineNumber) {
+                // parse the chunks of the wave in parallel
+                List<long[]> ranges = new ArrayList<>();
+                List<ForkJoinTask<ParsedLines>> tasks = new ArrayList<>();
+                while (boundary < fileSize && tasks.size() < pool.getParallelism()) {
+                    long from = boundary;
+                    long to = nextLineStart(channel, Math.min(fileSize, from + chunkSize), fileSize);
+                    ranges.add(new long[]{from, to});
+                    tasks.add(pool.submit(() -> {
+                        try {
+                            return parseRange(channel, from, to, Integer.MAX_VALUE);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }));
+                    boundary = to;
+                }
+
+                // collect them in file order, up to the line maxLineNumber
+                for (int i = 0; i < tasks.size() && lineCount < maxLineNumber; i++) {
+                    ParsedLines lines;
+                    try {
+                        lines = tasks.get(i).join();
+                    } catch (UncheckedIOException e) {
+                        if (!(e.getCause() instanceof LineException)) {
+                            throw e.getCause();
+                        }
+                        LineException lineException = (LineException) e.getCause();
+                        if (lineCount + lineException.lineNumber <= maxLineNumber) {
+                            throw lineException.withLineOffset((int) lineCount);
+                        }
+                        // the line is after maxLineNumber, parse the chunk up to it
+                        lines = parseRange(channel, ranges.get(i)[0], ranges.get(i)[1], (int) (maxLineNumber - lineCount));
+                    }
+                    chunks.add(lines);
+                    lineCount += lines.lineCount;
+                }
+            }
+            return chunks;
+        }
+    }
+
+    /**
+     * Find the start of the first line that begins at or after a position
+     *
+     * @param channel  the file
+     * @param position a position in the file
+     * @param fileSize the size of the file
+     * @return the position after the first '\n' found at or after position - 1
+     * @throws IOException if error reading the file
+     */
+    private static long nextLineStart(FileChannel channel, long position, long fileSize) throws IOException {
+        if (position >= fileSize) {
+            return fileSize;
+        }
+        ByteBuffer block = ByteBuffer.allocate(1 << 16);
+        long blockStart = position - 1;
+        while (blockStart < fileSize) {
+            block.clear();
+            int read = channel.read(block, blockStart);
+            for (int i = 0; i < read; i++) {
+                if (block.get(i) == '\n') {
+                    return blockStart + i + 1;
+                }
+            }
+            blockStart += Math.max(read, 1);
+        }
+        return fileSize;
+    }
+
+    /**
+     * Parse the lines of the file contained in [from, to), mapping the range
+     * region by region
+     *
+     * @param channel       the file
+     * @param from          the first byte to read, the start of a line
+     * @param to            the byte after the last byte to read, the end of a line
+     * @param maxLineNumber the maximum number of lines to read
+     * @return the parsed lines, numbered from 1
+     * @throws IOException if error reading the file or if a line is malformed
+     */
+    private static ParsedLines parseRange(FileChannel channel, long from, long to, int maxLineNumber) throws IOException {
+        ParsedLines lines = new ParsedLines();
+        long regionStart = from;
+        while (regionStart < to && lines.lineCount < maxLineNumber) {
+            long regionSize = Math.min(MAX_MAPPED_REGION, to - regionStart);
+            boolean lastRegion = regionStart + regionSize == to;
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, regionStart, regionSize);
+            int consumed = parseRegion(buffer, 0, (int) regionSize, lastRegion, maxLineNumber, lines);
+            if (consumed == 0 && !lastRegion) {
+                throw new LineException(lines.lineCount + 1, "Line %d is too long to be mapped");
+            }
+            regionStart += consumed;
+        }
+        return lines;
+    }
+
+    /**
+     * Parse the lines contained in buffer[from, to). The line numbers continue
+     * from lines.lineCount.
+     *
+     * @param buffer        the bytes of the file
+     * @param from          the first byte to read
+     * @param to            the byte after the last byte to read
+     * @param lastRegion    if false, a line that is not terminated before "to" is
+     *                      left for the next region
+     * @param maxLineNumber the maximum number of lines to read
+     * @param lines         the object receiving the parsed lines
+     * @return the number of bytes consumed
+     * @throws IOException if a line is malformed
+     */
+    static int parseRegion(ByteBuffer buffer, int from, int to, boolean lastRegion, int maxLineNumber,
+                           ParsedLines lines) throws IOException {
+        LineScanner scanner = new LineScanner(buffer, lines);
+        int start = from;
+        while (start < to && lines.lineCount < maxLineNumber) {
+            // find the end of the line
+            int lineEnd = start;
+            while (lineEnd < to) {
+                byte b = buffer.get(lineEnd);
+                if (b == '\n' || b == '\r') {
+                    break;
+                }
+                lineEnd++;
+            }
+            if (!lastRegion && (lineEnd == to || (lineEnd + 1 == to && buffer.get(lineEnd) == '\r'))) {
+                // the line (or its "\r\n" terminator) continues in the next region
+                break;
+            }
+            // skip the line terminator ("\n", "\r" or "\r\n")
+            int next = lineEnd;
+            if (next < to) {
+                if (buffer.get(next) == '\r' && next + 1 < to && buffer.get(next + 1) == '\n') {
+                    next += 2;
+                } else {
+                    next++;
+                }
+            }
+
+            lines.lineCount++;
+
+            // if the line is a comment, is empty or is a
+            // kind of metadata
+            if (lineEnd > start) {
+                byte first = buffer.get(start);
+                if (first != '#' && first != '%' && first != '@') {
+                    scanner.parseLine(start, lineEnd);
+                }
+            }
+            start = next;
+        }
+        return start - from;
+    }
+
+    /**
+     * implements a class that reads the tokens of one line at a time
+     */
+    private static class LineScanner {
+        private final ByteBuffer buffer;
+        private final ParsedLines lines;
+
+        /**
+         * the current position and the end of the current line
+         */
+        private int pos;
+        private int lineEnd;
+
+        LineScanner(ByteBuffer buffer, ParsedLines lines) {
+            this.buffer = buffer;
+            this.lines = lines;
+        }
+
+        /**
+         * Parse one line of the form events:totalUtility:eventsUtility
+         *
+         * @param start   the first byte of the line
+         * @param lineEnd the byte after the last byte of the line
+         * @throws IOException if the line is malformed
+         */
+        void parseLine(int start, int lineEnd) throws IOException {
+            this.pos = start;
+            this.lineEnd = lineEnd;
+            int rowStart = lines.eventCount;
+
+            // events
+            int eventCount = 0;
+            while (skipSpaces() && buffer.get(pos) != ':') {
+                lines.addEvent(nextInt());
+                eventCount++;
+            }
+            if (pos >= lineEnd || eventCount == 0) {
+                throw malformedLine();
+            }
+            pos++;
+
+            // total utility
+            skipSpaces();
+            int totalUtility = nextInt();
+            if (!skipSpaces() || buffer.get(pos) != ':') {
+                throw malformedLine();
+            }
+            pos++;
+
+            // utilities of the events, anything after them is ignored
+            for (int i = 0; i < eventCount; i++) {
+                skipSpaces();
+                lines.utilities[rowStart + i] = nextInt();
+            }
+
+            lines.endRow(totalUtility);
+        }
+
+        /**
+         * Skip the spaces and tabs at the current position
+         *
+         * @return true if the line has more bytes
+         */
+        private boolean skipSpaces() {
+            while (pos < lineEnd) {
+                byte b = buffer.get(pos);
+                if (b != ' ' && b != '\t') {
+                    return true;
+                }
+                pos++;
+            }
+            return false;
+        }
+
+        /**
+         * Read a (possibly negative) decimal integer at the current position
+         *
+         * @return the integer
+         * @throws IOException if there is no integer at the current position
+         */
+        private int nextInt() throws IOException {
+            boolean negative = false;
+            if (pos < lineEnd && buffer.get(pos) == '-') {
+                negative = true;
+                pos++;
+            }
+            int start = pos;
+            int value = 0;
+            while (pos < lineEnd) {
+                int digit = buffer.get(pos) - '0';
+                if (digit < 0 || digit > 9) {
+                    break;
+                }
+                value = value * 10 + digit;
+                pos++;
+            }
+            if (pos == start) {
+                throw malformedLine();
+            }
+            return negative ? -value : value;
+        }
+
+        private IOException malformedLine() {
+            return new LineException(lines.lineCount, "Malformed line %d, expected events:totalUtility:eventsUtility");
+        }
+    }
+
+    /**
+     * implements an exception reporting a line that cannot be parsed, its line
+     * number being counted from the start of the parsed range
+     */
+    private static class LineException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * the line number
+         */
+        final int lineNumber;
+
+        /**
+         * the message, with %d for the line number
+         */
+        private final String format;
+
+        LineException(int lineNumber, String format) {
+            super(String.format(format, lineNumber));
+            this.lineNumber = lineNumber;
+            this.format = format;
+        }
+
+        /**
+         * Report the same line in a range starting after other lines
+         *
+         * @param lineOffset the number of lines before the range
+         * @return the exception with the line number in the file
+         */
+        LineException withLineOffset(int lineOffset) {
+            return new LineException(this.lineNumber + lineOffset, this.format);
+        }
+    }
+
+    /**
+     * implements a class contains the parsed lines in primitive arrays. Row r
+     * (a non-comment line) has the line number lineNumbers[r], the events
+     * events[rowOffsets[r] .. rowOffsets[r+1]) with their utilities at the same
+     * positions in utilities, and the total utility totalUtilities[r].
+     */
+    public static class ParsedLines {
+        /**
+         * the number of lines read, including comments and empty lines
+         */
+        int lineCount;
+
+        /**
+         * the number of rows
+         */
+        int rowCount;
+
+        /**
+         * the number of events of all rows
+         */
+        int eventCount;
+
+        int[] lineNumbers = new int[1024];
+        int[] rowOffsets = new int[1025];
+        int[] totalUtilities = new int[1024];
+        int[] events = new int[4096];
+        int[] utilities = new int[4096];
+
+        /**
+         * Add an event to the current row
+         *
+         * @param event an event
+         */
+        void addEvent(int event) {
+            if (this.eventCount == this.events.length) {
+                this.events = Arrays.copyOf(this.events, this.eventCount * 2);
+                this.utilities = Arrays.copyOf(this.utilities, this.eventCount * 2);
+            }
+            this.events[this.eventCount++] = event;
+        }
+
+        /**
+         * Close the current row, its line number is the current line count
+         *
+         * @param totalUtility the total utility of the row
+         */
+        void endRow(int totalUtility) {
+            if (this.rowCount == this.lineNumbers.length) {
+                this.lineNumbers = Arrays.copyOf(this.lineNumbers, this.rowCount * 2);
+                this.totalUtilities = Arrays.copyOf(this.totalUtilities, this.rowCount * 2);
+                this.rowOffsets = Arrays.copyOf(this.rowOffsets, this.rowCount * 2 + 1);
+            }
+            this.lineNumbers[this.rowCount] = this.lineCount;
+            this.totalUtilities[this.rowCount] = totalUtility;
+            this.rowCount++;
+            this.rowOffsets[this.rowCount] = this.eventCount;
+        }
+
+        /**
+         * Get the number of lines read, including comments and empty lines
+         *
+         * @return the number of lines
+         */
+        public int getLineCount() {
+            return lineCount;
+        }
+
+        /**
+         * Get the number of rows (lines containing events)
+         *
+         * @return the number of rows
+         */
+        public int getRowCount() {
+            return rowCount;
+        }
+
+        /**
+         * Get the line number (TID) of a row
+         *
+         * @param row a row
+         * @return its line number
+         */
+        public int getLineNumber(int row) {
+            return lineNumbers[row];
+        }
+
+        /**
+         * Get the position of the first event of a row
+         *
+         * @param row a row
+         * @return a position in events and utilities
+         */
+        public int getRowStart(int row) {
+            return rowOffsets[row];
+        }
+
+        /**
+         * Get the position after the last event of a row
+         *
+         * @param row a row
+         * @return a position in events and utilities
+         */
+        public int getRowEnd(int row) {
+            return rowOffsets[row + 1];
+        }
+
+        /**
+         * Get the total utility of a row
+         *
+         * @param row a row
+         * @return the total utility
+         */
+        public int getTotalUtility(int row) {
+            return totalUtilities[row];
+        }
+
+        /**
+         * Get the event at a position
+         *
+         * @param pos a position
+         * @return the event
+         */
+        public int getEvent(int pos) {
+            return events[pos];
+        }
+
+        /**
+         * Get the utility of the event at a position
+         *
+         * @param pos a position
+         * @return the utility
+         */
+        public int getUtility(int pos) {
+            return utilities[pos];
+        }
+    }
+}
@@ -1,16 +1,16 @@
-import java.util.List;
-
-
 public class UPOERRuleOccur {
     /**
-     * the conseEpisode of a Partially-Ordered Episode Rule
+     * the conseEpisode of a Partially-Ordered Episode Rule, a node of the
+     * prefix tree of the consequents
      */
-    private List<Integer> episode;
+    private int episode;
 
     /**
-     * the appear time interval of a Partially-Ordered Episode Rule
+     * the appear time intervals of a Partially-Ordered Episode Rule are the
+     * occurrences [from, to) of the arena of its level
      */
-    private List<RuleIntervalUtility> IntervalUtility;
+    private int from;
+    private int to;
 
     /**
      * the utility of a Partially-Ordered Episode Rule
@@ -21,18 +21,14 @@ public class UPOERRuleOccur {
      */
     private int remainingUtility;
 
-    public UPOERRuleOccur(List<Integer> episode, List<RuleIntervalUtility> IntervalUtility, int utility, int remainingUtility) {
+    public UPOERRuleOccur(int episode, int from, int to, int utility, int remainingUtility) {
         this.episode = episode;
-        this.IntervalUtility = IntervalUtility;
+        this.from = from;
+        this.to = to;
         this.utility = utility;
         this.remainingUtility = remainingUtility;
     }
 
-    public void clear(){
-        this.episode=null;
-        this.IntervalUtility=null;
-    }
-
     public int getUtility() {
         return this.utility;
     }
@@ -41,24 +37,24 @@ public class UPOERRuleOccur {
         return this.remainingUtility;
     }
 
-    public List<Integer> getEpisode() {
+    public int getEpisode() {
         return episode;
     }
 
-    public void setEpisode(List<Integer> episode) {
+    public void setEpisode(int episode) {
         this.episode = episode;
     }
 
-    public List<RuleIntervalUtility> getIntervals() {
-        return IntervalUtility;
+    public int getFrom() {
+        return from;
     }
 
-    public void setIntervals(List<RuleIntervalUtility> IntervalUtility) {
-        this.IntervalUtility = IntervalUtility;
+    public int getTo() {
+        return to;
     }
 
     public String toString() {
-        return "episode: " + this.episode.toString() + " " + "intervals: " + this.IntervalUtility.toString();
+        return "episode: " + this.episode + " " + "intervals: [" + this.from + ", " + this.to + ")";
     }
 
 }